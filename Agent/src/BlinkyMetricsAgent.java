@@ -1,3 +1,6 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -8,7 +11,11 @@ import org.hyperic.sigar.Sigar;
 import org.hyperic.sigar.SigarException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 /**
  * Example command line:
@@ -16,21 +23,44 @@ import java.net.InetAddress;
  * java -classpath out/production/Agent;Agent/lib/* -Djava.library.path=Agent/lib/sigar BlinkyMetricsAgent 192.168.5.177:7272
  * java -classpath out/artifacts/BlinkyMetricsAgent.jar -Djava.library.path=Agent/lib/sigar BlinkyMetricsAgent 192.168.5.177:7272
  * <p>
+ * Hosts that can't connect out to the server (e.g. behind a firewall) can serve their latest sample for the server to
+ * scrape instead, with or without pushing as well:
+ * <p>
+ * java -classpath out/production/Agent;Agent/lib/* -Djava.library.path=Agent/lib/sigar BlinkyMetricsAgent --listen 7273
+ * <p>
  * Created by squinn on 4/21/2017.
  */
 public class BlinkyMetricsAgent {
+
+    private static final String METRICS_PATH = "/metrics";          // Where a listening agent serves its latest sample
+
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Usage: java BlinkyMetricsAgent <server[:port]>");
+        String serverAddress = null;
+        int listenPort = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--listen") && i + 1 < args.length) {
+                listenPort = Integer.parseInt(args[++i]);
+            } else {
+                serverAddress = args[i];
+            }
+        }
+        if (serverAddress == null && listenPort == 0) {
+            System.err.println("Usage: java BlinkyMetricsAgent <server[:port]> [--listen <port>]");
+            System.err.println("       java BlinkyMetricsAgent --listen <port>");
             return;
         }
-        new BlinkyMetricsAgent(args[0]).start();
+        new BlinkyMetricsAgent(serverAddress, listenPort).start();
     }
 
     private String serverAddress;
+    private int listenPort;
+
+    // The latest sample, for the server to scrape
+    private volatile JSONObject latestMetricsJSON = null;
 
-    private BlinkyMetricsAgent(String serverAddress) {
+    private BlinkyMetricsAgent(String serverAddress, int listenPort) {
         this.serverAddress = serverAddress;
+        this.listenPort = listenPort;
     }
 
     @SuppressWarnings("InfiniteLoopStatement")
@@ -49,6 +79,16 @@ public class BlinkyMetricsAgent {
 
         final String hostName = getHostName();
 
+        if (listenPort > 0) {
+            try {
+                startMetricsEndpoint();
+            } catch (IOException e) {
+                System.err.println("Fatal error, unable to listen on port " + listenPort + " due to: " + e.getMessage());
+                return;
+            }
+            System.out.println("Serving metrics for scraping at: http://" + hostName + ":" + listenPort + METRICS_PATH);
+        }
+
         boolean connected = false;
         while (true) {
 
@@ -58,20 +98,21 @@ public class BlinkyMetricsAgent {
             // printCpuUsagePercentages(totalCpuUsagePercentage, cpuPercs);
 
             // Convert metrics to JSON
-            final JSONObject json = new JSONObject();
-            json.put("hostName", hostName);
-            json.put("cpuUsage", totalCpuUsagePercentage);
-
-            // Post to the server (if available)
-            if(postMetricsToServer(json)) {
-                if(!connected) {
-                    System.out.println("Successfully connected to: " + serverAddress);
-                    connected = true;
-                }
-            } else {
-                if(connected) {
-                    System.out.println("Attempting to reconnect to: " + serverAddress);
-                    connected = false;
+            final JSONObject json = buildMetricsJSON(hostName, totalCpuUsagePercentage);
+            latestMetricsJSON = json;
+
+            // Post to the server (if available, and unless it only scrapes us)
+            if (serverAddress != null) {
+                if(postMetricsToServer(json)) {
+                    if(!connected) {
+                        System.out.println("Successfully connected to: " + serverAddress);
+                        connected = true;
+                    }
+                } else {
+                    if(connected) {
+                        System.out.println("Attempting to reconnect to: " + serverAddress);
+                        connected = false;
+                    }
                 }
             }
 
@@ -83,19 +124,53 @@ public class BlinkyMetricsAgent {
         }
     }
 
+    /**
+     * Serves the latest sample, in the same JSON that we'd post, to whoever asks (i.e. a scraping server).
+     */
+    private void startMetricsEndpoint() throws IOException {
+        final HttpServer httpServer = HttpServer.create(new InetSocketAddress(listenPort), 0);
+        httpServer.createContext(METRICS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final JSONObject json = latestMetricsJSON;
+                final byte[] body = (json == null ? "" : json.toString()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(json == null ? 503 : 200, body.length == 0 ? -1 : body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+        });
+
+        // The default executor (the server's own thread) is plenty for one server scraping us
+        httpServer.start();
+    }
+
     private boolean postMetricsToServer(JSONObject json) {
         try {
             final CloseableHttpClient httpclient = HttpClients.createDefault();
-            final HttpPost httpPost = new HttpPost("http://" + serverAddress + "/metrics");
-            httpPost.setHeader("Content-type", "application/json");
-            httpPost.setEntity(new StringEntity(json.toString()));
-            httpclient.execute(httpPost);
+            httpclient.execute(createMetricsPost(serverAddress, json));
         } catch (Throwable t) {
             return false;
         }
         return true;
     }
 
+    // Shared with the BlinkyMetricsLoadGenerator so that virtual agents post exactly what a real agent does
+    static JSONObject buildMetricsJSON(String hostName, double cpuUsage) {
+        final JSONObject json = new JSONObject();
+        json.put("hostName", hostName);
+        json.put("cpuUsage", cpuUsage);
+        return json;
+    }
+
+    static HttpPost createMetricsPost(String serverAddress, JSONObject json) throws UnsupportedEncodingException {
+        final HttpPost httpPost = new HttpPost("http://" + serverAddress + "/metrics");
+        httpPost.setHeader("Content-type", "application/json");
+        httpPost.setEntity(new StringEntity(json.toString()));
+        return httpPost;
+    }
+
     private String getHostName() {
         String hostname = "Unknown";
 
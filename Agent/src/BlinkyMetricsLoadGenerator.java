@@ -0,0 +1,357 @@
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simulates many agents posting metrics, and many LED clients streaming them back, against a single server so that we
+ * can find out how much load one BlinkyMetricsServer can take without standing up real machines.
+ * <p>
+ * Example command line:
+ * <p>
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsLoadGenerator localhost:7272 20000 200 500 60 sine
+ * <p>
+ * Post latency is measured from when each post was due to be sent, not from when a posting thread got round to it, so
+ * any time a post spends queued behind a saturated generator counts against it rather than being hidden.  How far the
+ * generator fell behind its schedule is reported separately as schedule lag: if that grows, the generator (not just the
+ * server) is the bottleneck.
+ * <p>
+ * Sample-to-client latency is measured from when a virtual agent sent a sample to when a subscriber reads it back, so
+ * it covers the post, the server's ingest and the stream.  Both ends are timed by the generator's own clock.  A
+ * subscriber only measures samples that arrive while it's connected; the first value it sees for each host may be an
+ * old one, so that is skipped.
+ */
+public class BlinkyMetricsLoadGenerator {
+
+    private static final int DEFAULT_AGENT_COUNT = 10000;
+    private static final int DEFAULT_SUBSCRIBER_COUNT = 100;
+    private static final long DEFAULT_POST_INTERVAL_MILLIS = 500;        // Same rate as a real BlinkyMetricsAgent
+    private static final int DEFAULT_DURATION_SECONDS = 60;
+    private static final int POSTING_THREAD_COUNT = 256;                 // Number of concurrent posts in flight at most
+    private static final long REPORT_DELAY_MILLIS = 5000;                // How often we print interim results
+    private static final String HOST_NAME_PREFIX = "loadgen-";
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java BlinkyMetricsLoadGenerator <server[:port]> [agents] [subscribers] [postIntervalMillis] [durationSeconds] [constant|uniform|sine|spike]");
+            return;
+        }
+        try {
+            new BlinkyMetricsLoadGenerator(
+                args[0],
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_AGENT_COUNT,
+                args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SUBSCRIBER_COUNT,
+                args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_POST_INTERVAL_MILLIS,
+                args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_DURATION_SECONDS,
+                args.length > 5 ? ValueDistribution.valueOf(args[5].toUpperCase()) : ValueDistribution.UNIFORM
+            ).start();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final String serverAddress;
+    private final int agentCount;
+    private final int subscriberCount;
+    private final long postIntervalMillis;
+    private final int durationSeconds;
+    private final ValueDistribution valueDistribution;
+
+    private final AtomicLong postsSucceeded = new AtomicLong();
+    private final AtomicLong postsFailed = new AtomicLong();
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong subscriberErrors = new AtomicLong();
+    private final LatencyHistogram postLatency = new LatencyHistogram();
+    private final LatencyHistogram scheduleLag = new LatencyHistogram();
+    private final LatencyHistogram sampleToClientLatency = new LatencyHistogram();
+    private final AtomicLongArray sentMillisPerAgent;      // When each agent sent its latest sample the server accepted
+
+    private volatile boolean running = true;
+
+    private BlinkyMetricsLoadGenerator(String serverAddress, int agentCount, int subscriberCount, long postIntervalMillis,
+                                       int durationSeconds, ValueDistribution valueDistribution) {
+        this.serverAddress = serverAddress;
+        this.agentCount = agentCount;
+        this.subscriberCount = subscriberCount;
+        this.postIntervalMillis = postIntervalMillis;
+        this.durationSeconds = durationSeconds;
+        this.valueDistribution = valueDistribution;
+        this.sentMillisPerAgent = new AtomicLongArray(agentCount);
+    }
+
+    private void start() throws Exception {
+        System.out.println("Simulating " + agentCount + " agents posting every " + postIntervalMillis + "ms ("
+            + valueDistribution.name().toLowerCase() + " values) and " + subscriberCount + " stream subscribers against "
+            + serverAddress + " for " + durationSeconds + " seconds");
+
+        // Virtual agents share one pooled connection manager, the pool size caps how many posts can be in flight
+        final PoolingHttpClientConnectionManager postConnectionManager = new PoolingHttpClientConnectionManager();
+        postConnectionManager.setMaxTotal(POSTING_THREAD_COUNT);
+        postConnectionManager.setDefaultMaxPerRoute(POSTING_THREAD_COUNT);
+        final CloseableHttpClient postClient = HttpClients.custom().setConnectionManager(postConnectionManager).build();
+
+        // Every subscriber holds its own streaming connection open for the whole run
+        final PoolingHttpClientConnectionManager streamConnectionManager = new PoolingHttpClientConnectionManager();
+        streamConnectionManager.setMaxTotal(Math.max(1, subscriberCount));
+        streamConnectionManager.setDefaultMaxPerRoute(Math.max(1, subscriberCount));
+        final CloseableHttpClient streamClient = HttpClients.custom().setConnectionManager(streamConnectionManager).build();
+
+        final ExecutorService subscriberExecutor = Executors.newFixedThreadPool(Math.max(1, subscriberCount));
+        for (int i = 0; i < subscriberCount; i++) {
+            subscriberExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSubscriber(streamClient);
+                }
+            });
+        }
+
+        // Spread the agents evenly across the post interval so we generate a steady rate rather than bursts
+        final ScheduledExecutorService agentExecutor = Executors.newScheduledThreadPool(POSTING_THREAD_COUNT);
+        final long scheduleStartNanos = System.nanoTime();
+        for (int i = 0; i < agentCount; i++) {
+            final int agentIndex = i;
+            final String hostName = HOST_NAME_PREFIX + i;
+            final long initialDelayMillis = (postIntervalMillis * i) / Math.max(1, agentCount);
+            agentExecutor.scheduleAtFixedRate(
+                new Runnable() {
+                    private long postCount = 0;         // Runs of one task never overlap, so this needs no locking
+
+                    @Override
+                    public void run() {
+                        final long intendedNanos = scheduleStartNanos
+                            + TimeUnit.MILLISECONDS.toNanos(initialDelayMillis + postCount++ * postIntervalMillis);
+                        postSample(postClient, agentIndex, hostName, intendedNanos);
+                    }
+                },
+                initialDelayMillis,
+                postIntervalMillis,
+                TimeUnit.MILLISECONDS
+            );
+        }
+
+        final ScheduledExecutorService reportExecutor = Executors.newSingleThreadScheduledExecutor();
+        reportExecutor.scheduleAtFixedRate(
+            new Runnable() {
+                private long lastReportMillis = System.currentTimeMillis();
+                private long lastPosts = 0;
+                private long lastPackets = 0;
+
+                @Override
+                public void run() {
+                    final long currentMillis = System.currentTimeMillis();
+                    final long posts = postsSucceeded.get();
+                    final long packets = packetsReceived.get();
+                    final double seconds = Math.max(1, currentMillis - lastReportMillis) / 1000.0;
+                    System.out.println(String.format("Posts/sec: %8.1f, Packets/sec: %7.1f, %s",
+                        (posts - lastPosts) / seconds, (packets - lastPackets) / seconds, summarizeTotals()));
+                    lastReportMillis = currentMillis;
+                    lastPosts = posts;
+                    lastPackets = packets;
+                }
+            }, REPORT_DELAY_MILLIS, REPORT_DELAY_MILLIS, TimeUnit.MILLISECONDS
+        );
+
+        final long startMillis = System.currentTimeMillis();
+        Thread.sleep(durationSeconds * 1000L);
+        final double elapsedSeconds = (System.currentTimeMillis() - startMillis) / 1000.0;
+
+        running = false;
+        reportExecutor.shutdownNow();
+        agentExecutor.shutdownNow();
+        subscriberExecutor.shutdownNow();
+        postClient.close();
+        streamClient.close();
+
+        final long totalPosts = postsSucceeded.get() + postsFailed.get();
+        System.out.println();
+        System.out.println("Load generation complete after " + String.format("%.1f", elapsedSeconds) + " seconds");
+        System.out.println(String.format("Target ingest throughput:   %10.1f posts/sec", agentCount * 1000.0 / postIntervalMillis));
+        System.out.println(String.format("Achieved ingest throughput: %10.1f posts/sec", postsSucceeded.get() / elapsedSeconds));
+        System.out.println(String.format("Post error rate:            %10.3f%% (%d of %d)",
+            totalPosts == 0 ? 0.0 : postsFailed.get() * 100.0 / totalPosts, postsFailed.get(), totalPosts));
+        System.out.println(String.format("Subscriber packets:         %10.1f packets/sec, %d stream errors",
+            packetsReceived.get() / elapsedSeconds, subscriberErrors.get()));
+        System.out.println("Post latency:             " + postLatency.summarize());
+        System.out.println("Schedule lag:             " + scheduleLag.summarize());
+        System.out.println("Sample-to-client latency: " + sampleToClientLatency.summarize());
+    }
+
+    private String summarizeTotals() {
+        return "Post errors: " + postsFailed.get()
+            + ", Stream errors: " + subscriberErrors.get()
+            + ", Post latency: " + postLatency.summarize()
+            + ", Schedule lag: " + scheduleLag.summarize()
+            + ", Sample-to-client latency: " + sampleToClientLatency.summarize();
+    }
+
+    /**
+     * @param intendedNanos when the post was due to be sent, which is what its latency is measured from
+     */
+    private void postSample(CloseableHttpClient httpClient, int agentIndex, String hostName, long intendedNanos) {
+        if (!running) {
+            return;
+        }
+        scheduleLag.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intendedNanos));
+        final double cpuUsage = valueDistribution.nextValue(agentIndex, System.currentTimeMillis(), postIntervalMillis);
+        try {
+            final JSONObject json = BlinkyMetricsAgent.buildMetricsJSON(hostName, cpuUsage);
+            final long sentMillis = System.currentTimeMillis();
+            try (CloseableHttpResponse response = httpClient.execute(BlinkyMetricsAgent.createMetricsPost(serverAddress, json))) {
+                EntityUtils.consume(response.getEntity());
+                if (response.getStatusLine().getStatusCode() == 200) {
+                    postsSucceeded.incrementAndGet();
+                    // Only once accepted, so a subscriber can't match the server's current sample to a newer post
+                    sentMillisPerAgent.set(agentIndex, sentMillis);
+                } else {
+                    postsFailed.incrementAndGet();
+                }
+            }
+        } catch (Throwable t) {
+            if (!running) {
+                return;             // Shutting down, so the connection pool closing under us isn't a server error
+            }
+            postsFailed.incrementAndGet();
+        }
+        postLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intendedNanos));
+    }
+
+    private void runSubscriber(CloseableHttpClient httpClient) {
+        // The last update we've seen for each host, so we only measure latency when a new sample arrives
+        final Map<String, Long> lastUpdatedMillisPerHost = new HashMap<>();
+
+        while (running) {
+            try (CloseableHttpResponse response = httpClient.execute(new HttpGet("http://" + serverAddress + "/metrics"))) {
+                final BufferedReader inputReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+                String packet;
+                while (running && (packet = inputReader.readLine()) != null) {
+                    final long receivedMillis = System.currentTimeMillis();
+                    final JSONArray hosts = new JSONObject(packet).getJSONArray("hosts");
+                    for (int i = 0; i < hosts.length(); i++) {
+                        final JSONObject hostJsonObject = hosts.getJSONObject(i);
+                        final String hostName = hostJsonObject.getString("hostName");
+                        if (!hostName.startsWith(HOST_NAME_PREFIX)) {
+                            continue;
+                        }
+                        final long lastUpdatedMillis = hostJsonObject.getLong("lastUpdatedMillis");
+                        final Long previousUpdatedMillis = lastUpdatedMillisPerHost.put(hostName, lastUpdatedMillis);
+                        // The first value seen for a host could have been stored long before we connected, and a zero
+                        // timestamp means the server registered the host but hasn't stored its first sample yet
+                        if (lastUpdatedMillis > 0 && previousUpdatedMillis != null && previousUpdatedMillis != lastUpdatedMillis) {
+                            final int agentIndex = Integer.parseInt(hostName.substring(HOST_NAME_PREFIX.length()));
+                            final long sentMillis = agentIndex < agentCount ? sentMillisPerAgent.get(agentIndex) : 0;
+                            if (sentMillis > 0) {
+                                sampleToClientLatency.record(receivedMillis - sentMillis);
+                            }
+                        }
+                    }
+                    packetsReceived.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                if (!running) {
+                    return;
+                }
+                subscriberErrors.incrementAndGet();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The shape of the CPU usage values the virtual agents report, so we can check how the server and clients behave
+     * with both steady and rapidly changing data.
+     */
+    private enum ValueDistribution {
+        CONSTANT {
+            @Override
+            double nextValue(int agentIndex, long currentMillis, long postIntervalMillis) {
+                return 0.5;
+            }
+        },
+        UNIFORM {
+            @Override
+            double nextValue(int agentIndex, long currentMillis, long postIntervalMillis) {
+                return ThreadLocalRandom.current().nextDouble();
+            }
+        },
+        SINE {
+            @Override
+            double nextValue(int agentIndex, long currentMillis, long postIntervalMillis) {
+                // Each agent is phase shifted so the hosts don't all move together, one full cycle every 100 posts
+                final double phase = (currentMillis / (double) (postIntervalMillis * 100) + agentIndex / 100.0) * 2 * Math.PI;
+                return 0.5 + 0.5 * Math.sin(phase);
+            }
+        },
+        SPIKE {
+            @Override
+            double nextValue(int agentIndex, long currentMillis, long postIntervalMillis) {
+                // Mostly idle with the occasional host pegged at 100%
+                return ThreadLocalRandom.current().nextInt(20) == 0 ? 1.0 : ThreadLocalRandom.current().nextDouble() * 0.1;
+            }
+        };
+
+        abstract double nextValue(int agentIndex, long currentMillis, long postIntervalMillis);
+    }
+
+    /**
+     * Millisecond resolution histogram that many threads can record into without locking.
+     */
+    private static class LatencyHistogram {
+        private static final int MAX_TRACKED_MILLIS = 10000;             // Anything slower lands in the last bucket
+
+        private final AtomicLongArray buckets = new AtomicLongArray(MAX_TRACKED_MILLIS + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            final long value = Math.max(0, millis);
+            buckets.incrementAndGet((int) Math.min(value, MAX_TRACKED_MILLIS));
+            count.incrementAndGet();
+            long currentMax;
+            while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+                // Retry until we either win or someone else records a bigger value
+            }
+        }
+
+        long percentile(double percentile) {
+            final long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            final long threshold = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold) {
+                    return i;
+                }
+            }
+            return MAX_TRACKED_MILLIS;
+        }
+
+        String summarize() {
+            return String.format("p50=%dms p90=%dms p99=%dms max=%dms",
+                percentile(50), percentile(90), percentile(99), max.get());
+        }
+    }
+}
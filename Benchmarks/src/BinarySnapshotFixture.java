@@ -0,0 +1,44 @@
+import benchmarks.Fixture;
+
+import java.io.OutputStream;
+
+/**
+ * Encodes a tick of the binary metrics stream for a connection that has already had its snapshot, with every host's
+ * CPU usage changing on every tick (the worst case, usually only some of them do).
+ */
+public class BinarySnapshotFixture implements Fixture {
+
+    private final BinaryMetricsEncoder encoder = new BinaryMetricsEncoder();
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private String[] hostNames;
+    private int tick = 0;
+
+    @Override
+    public void setUp(int hostCount) throws Exception {
+        hostNames = new String[hostCount];
+        for (int host = 0; host < hostCount; host++) {
+            hostNames[host] = "host-" + host;
+        }
+        run();
+    }
+
+    @Override
+    public Object run() throws Exception {
+        tick++;
+        encoder.beginTick();
+        for (int host = 0; host < hostNames.length; host++) {
+            encoder.addHost(hostNames[host], ((host + tick) % 2) * 0.5);
+        }
+        encoder.endTick();
+        encoder.writeTo(outputStream);
+        return encoder;
+    }
+}
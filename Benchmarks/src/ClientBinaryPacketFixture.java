@@ -0,0 +1,51 @@
+import benchmarks.Fixture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * The binary stream counterpart of ClientPacketFixture: runs frames from a real BinaryMetricsEncoder through
+ * BlinkyMetricsClient.processBinaryPacket.  After the first snapshot every frame changes every host.
+ */
+public class ClientBinaryPacketFixture implements Fixture {
+
+    private final BlinkyMetricsClient client = new BlinkyMetricsClient();
+    private final BlinkyMetricsClient.LedManager ledManager = client.new LedManager();
+    private final byte[][] deltas = new byte[2][];
+    private int next = 0;
+
+    @Override
+    public void setUp(int hostCount) throws Exception {
+        final BinaryMetricsEncoder encoder = new BinaryMetricsEncoder();
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int tick = 0; tick < 3; tick++) {
+            encoder.beginTick();
+            for (int host = 0; host < hostCount; host++) {
+                encoder.addHost("host-" + host, ((host + tick) % 2) * 0.5);
+            }
+            encoder.endTick();
+            encoder.writeTo(stream);
+        }
+
+        // The snapshot sets up the host dictionary, then the two deltas take turns
+        final BinaryMetricsDecoder binaryDecoder = client.getBinaryDecoder();
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(stream.toByteArray());
+        binaryDecoder.readFrame(inputStream);
+        ClientFixtures.processFirstPacket(client, ledManager, true);
+        for (int i = 0; i < deltas.length; i++) {
+            binaryDecoder.readFrame(inputStream);
+            deltas[i] = Arrays.copyOf(binaryDecoder.getFrameData(), binaryDecoder.getFrameLength());
+        }
+    }
+
+    @Override
+    public Object run() {
+        final byte[] delta = deltas[next];
+        next = (next + 1) % deltas.length;
+
+        client.getBinaryDecoder().setFrame(delta, delta.length);
+        client.processBinaryPacket(ledManager);
+        return client;
+    }
+}
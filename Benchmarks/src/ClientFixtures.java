@@ -0,0 +1,34 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Shared set up for the fixtures that push packets through a BlinkyMetricsClient.
+ */
+final class ClientFixtures {
+
+    private ClientFixtures() {
+    }
+
+    /**
+     * Processes the packet (or binary frame) waiting in the client's decoder, so the hosts are all known before the
+     * benchmark starts.
+     */
+    static void processFirstPacket(BlinkyMetricsClient client, BlinkyMetricsClient.LedManager ledManager, boolean binary) {
+        // The client announces how many hosts it's receiving data for, which would bury the benchmark output
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            if (binary) {
+                client.processBinaryPacket(ledManager);
+            } else {
+                client.processPacket(ledManager);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import benchmarks.Fixture;
+
+/**
+ * Runs a real server snapshot through BlinkyMetricsClient.processPacket: decode it into the host slot table and start
+ * the LED animation towards it.  The client isn't recording and its LED manager isn't started, so nothing is drawn.
+ */
+public class ClientPacketFixture implements Fixture {
+
+    private final BlinkyMetricsClient client = new BlinkyMetricsClient();
+    private final BlinkyMetricsClient.LedManager ledManager = client.new LedManager();
+    private String packet;
+
+    @Override
+    public void setUp(int hostCount) throws Exception {
+        packet = ServerFixtures.createServer(hostCount).buildMetricsJSON().toString();
+        client.getPacketDecoder().setPacket(packet);
+        ClientFixtures.processFirstPacket(client, ledManager, false);
+    }
+
+    @Override
+    public Object run() {
+        client.getPacketDecoder().setPacket(packet);
+        client.processPacket(ledManager);
+        return client;
+    }
+}
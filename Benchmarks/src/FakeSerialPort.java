@@ -0,0 +1,28 @@
+import jssc.SerialPort;
+
+/**
+ * A serial port that accepts every write without any hardware behind it.
+ */
+public class FakeSerialPort extends SerialPort {
+
+    private long bytesWritten = 0;
+
+    public FakeSerialPort() {
+        super("FAKE");
+    }
+
+    @Override
+    public boolean writeBytes(byte[] buffer) {
+        bytesWritten += buffer.length;
+        return true;
+    }
+
+    @Override
+    public boolean closePort() {
+        return true;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,30 @@
+import benchmarks.Fixture;
+
+import java.awt.*;
+
+/**
+ * Builds a frame the way the client used to: a new BlinkyFrameBuilder and a new Color for every lit LED.
+ */
+public class FrameBuilderFixture implements Fixture {
+
+    private double[] cpuUsages;
+
+    @Override
+    public void setUp(int lightCount) {
+        cpuUsages = new double[lightCount];
+        for (int light = 0; light < lightCount; light++) {
+            cpuUsages[light] = light / (double) lightCount;
+        }
+    }
+
+    @Override
+    public Object run() {
+        final BlinkyFrameBuilder blinkyFrameBuilder = new BlinkyFrameBuilder()
+                .withAllLightsSetTo(Color.BLACK);
+        for (int light = 0; light < cpuUsages.length; light++) {
+            final float cpuUsage = (float) cpuUsages[light];
+            blinkyFrameBuilder.withSpecificLightSetTo(light, new Color(cpuUsage, 1.0f - cpuUsage, 0.0f));
+        }
+        return blinkyFrameBuilder.build();
+    }
+}
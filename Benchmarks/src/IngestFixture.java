@@ -0,0 +1,35 @@
+import benchmarks.Fixture;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+/**
+ * Posts from every host in turn through parseMetricsJSON and updateHostMetrics.
+ */
+public class IngestFixture implements Fixture {
+
+    private BlinkyMetricsServer server;
+    private String[] bodies;
+    private int next = 0;
+
+    @Override
+    public void setUp(int hostCount) throws Exception {
+        server = ServerFixtures.createServer(hostCount);
+        bodies = new String[hostCount];
+        for (int host = 0; host < hostCount; host++) {
+            bodies[host] = ServerFixtures.metricsBody(host);
+        }
+    }
+
+    @Override
+    public Object run() throws Exception {
+        final String body = bodies[next];
+        next = (next + 1) % bodies.length;
+
+        // In the server the reader comes from Jetty, so size this one to the body rather than count an 8K buffer as ingest
+        final JSONObject json = server.parseMetricsJSON(new BufferedReader(new StringReader(body), body.length()));
+        server.updateHostMetrics(json);
+        return json;
+    }
+}
@@ -0,0 +1,39 @@
+import benchmarks.Fixture;
+
+/**
+ * Draws a frame the way the client does now: the LED animation renders into a reused array which is copied into a
+ * reused packed frame.
+ */
+public class PackedFrameFixture implements Fixture {
+
+    private final PackedBlinkyFrame frame = new PackedBlinkyFrame();
+    private final LedAnimator ledAnimator = new LedAnimator();
+    private int[] ledRgbs;
+
+    @Override
+    public void setUp(int lightCount) {
+        final MetricsPacketDecoder packetDecoder = new MetricsPacketDecoder();
+        final StringBuilder packet = new StringBuilder("{\"hosts\":[");
+        for (int light = 0; light < lightCount; light++) {
+            packet.append(light == 0 ? "" : ",")
+                    .append("{\"hostName\":\"host-").append(light)
+                    .append("\",\"cpuUsage\":").append(light / (double) lightCount).append('}');
+        }
+        packetDecoder.setPacket(packet.append("]}"));
+
+        final HostSlotTable hostSlotTable = new HostSlotTable();
+        packetDecoder.decode(hostSlotTable);
+        ledAnimator.update(hostSlotTable, System.nanoTime());
+        ledRgbs = new int[lightCount];
+    }
+
+    @Override
+    public Object run() {
+        ledAnimator.render(ledRgbs, ledRgbs.length, System.nanoTime());
+        frame.clear();
+        for (int light = 0; light < ledRgbs.length; light++) {
+            frame.setLight(light, ledRgbs[light]);
+        }
+        return frame;
+    }
+}
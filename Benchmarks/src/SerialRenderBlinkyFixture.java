@@ -0,0 +1,34 @@
+import benchmarks.Fixture;
+
+import java.awt.*;
+
+/**
+ * Renders Color based BlinkyFrames through SerialBlinkyTapeController onto a fake port, cycling through the given
+ * number of distinct frames.
+ */
+public class SerialRenderBlinkyFixture implements Fixture {
+
+    private final FakeSerialPort serialPort = new FakeSerialPort();
+    private final SerialBlinkyTapeController controller = new SerialBlinkyTapeController(serialPort);
+    private BlinkyFrame[] frames;
+    private int next = 0;
+
+    @Override
+    public void setUp(int distinctFrames) {
+        frames = new BlinkyFrame[distinctFrames];
+        for (int i = 0; i < distinctFrames; i++) {
+            final BlinkyFrameBuilder blinkyFrameBuilder = new BlinkyFrameBuilder();
+            for (int light = 0; light < BlinkyFrame.DEFAULT_LIGHT_COUNT; light++) {
+                blinkyFrameBuilder.withSpecificLightSetTo(light, new Color(light * 4, 255 - light * 4, i));
+            }
+            frames[i] = blinkyFrameBuilder.build();
+        }
+    }
+
+    @Override
+    public Object run() {
+        controller.renderFrame(frames[next]);
+        next = (next + 1) % frames.length;
+        return serialPort;
+    }
+}
@@ -0,0 +1,31 @@
+import benchmarks.Fixture;
+
+/**
+ * Renders packed frames through SerialBlinkyTapeController onto a fake port, cycling through the given number of
+ * distinct frames.
+ */
+public class SerialRenderPackedFixture implements Fixture {
+
+    private final FakeSerialPort serialPort = new FakeSerialPort();
+    private final SerialBlinkyTapeController controller = new SerialBlinkyTapeController(serialPort);
+    private PackedBlinkyFrame[] frames;
+    private int next = 0;
+
+    @Override
+    public void setUp(int distinctFrames) {
+        frames = new PackedBlinkyFrame[distinctFrames];
+        for (int i = 0; i < distinctFrames; i++) {
+            frames[i] = new PackedBlinkyFrame();
+            for (int light = 0; light < frames[i].getLightCount(); light++) {
+                frames[i].setLight(light, light * 4, 255 - light * 4, i);
+            }
+        }
+    }
+
+    @Override
+    public Object run() {
+        controller.renderFrame(frames[next]);
+        next = (next + 1) % frames.length;
+        return serialPort;
+    }
+}
@@ -0,0 +1,46 @@
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * Shared set up for the fixtures that need a BlinkyMetricsServer full of hosts.
+ */
+final class ServerFixtures {
+
+    private ServerFixtures() {
+    }
+
+    /**
+     * @return the body an agent would post for the given host
+     */
+    static String metricsBody(int host) {
+        final JSONObject json = new JSONObject();
+        json.put("hostName", "host-" + host);
+        json.put("cpuUsage", (host % 100) / 100.0);
+        return json.toString();
+    }
+
+    static BlinkyMetricsServer createServer(int hostCount) throws IOException {
+        final BlinkyMetricsServer server = new BlinkyMetricsServer();
+
+        // The server announces every new host, which would bury the benchmark output
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            for (int host = 0; host < hostCount; host++) {
+                server.updateHostMetrics(server.parseMetricsJSON(new BufferedReader(new StringReader(metricsBody(host)))));
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return server;
+    }
+}
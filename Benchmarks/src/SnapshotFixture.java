@@ -0,0 +1,19 @@
+import benchmarks.Fixture;
+
+/**
+ * Builds and serializes the snapshot the server streams to its clients.
+ */
+public class SnapshotFixture implements Fixture {
+
+    private BlinkyMetricsServer server;
+
+    @Override
+    public void setUp(int hostCount) throws Exception {
+        server = ServerFixtures.createServer(hostCount);
+    }
+
+    @Override
+    public Object run() {
+        return server.buildMetricsJSON().toString();
+    }
+}
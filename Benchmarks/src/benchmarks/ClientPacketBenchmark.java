@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client's packet handling: decoding a snapshot from the server and handing it to the LED animation, for both the
+ * JSON and the binary stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientPacketBenchmark {
+
+    @Param({"12", "100", "1000"})
+    public int hostCount;
+
+    private Fixture packet;
+    private Fixture binaryPacket;
+
+    @Setup
+    public void setUp() throws Exception {
+        packet = Fixtures.create("ClientPacketFixture", hostCount);
+        binaryPacket = Fixtures.create("ClientBinaryPacketFixture", hostCount);
+    }
+
+    @Benchmark
+    public Object processPacket() throws Exception {
+        return packet.run();
+    }
+
+    @Benchmark
+    public Object processBinaryPacket() throws Exception {
+        return binaryPacket.run();
+    }
+}
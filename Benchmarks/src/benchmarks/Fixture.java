@@ -0,0 +1,18 @@
+package benchmarks;
+
+/**
+ * One of BlinkyMetrics' hot paths, set up at a given size and ready to be run over and over.
+ * <p>
+ * All of the BlinkyMetrics code lives in the default package, which JMH refuses to generate benchmarks for and which
+ * named packages can't see into.  So the fixtures live in the default package next to the code they exercise, and the
+ * benchmarks in this package only ever talk to them through this interface.
+ */
+public interface Fixture {
+
+    void setUp(int size) throws Exception;
+
+    /**
+     * @return something derived from the work done, so it can't be optimized away
+     */
+    Object run() throws Exception;
+}
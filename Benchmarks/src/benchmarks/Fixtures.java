@@ -0,0 +1,16 @@
+package benchmarks;
+
+/**
+ * Creates the default package {@link Fixture} implementations by name.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Fixture create(String className, int size) throws Exception {
+        final Fixture fixture = (Fixture) Class.forName(className).getDeclaredConstructor().newInstance();
+        fixture.setUp(size);
+        return fixture;
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a frame of lightCount lit LEDs, with the BlinkyFrameBuilder and with the packed frames the client draws.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBuildingBenchmark {
+
+    @Param({"12", "60"})
+    public int lightCount;
+
+    private Fixture frameBuilder;
+    private Fixture packedFrame;
+
+    @Setup
+    public void setUp() throws Exception {
+        frameBuilder = Fixtures.create("FrameBuilderFixture", lightCount);
+        packedFrame = Fixtures.create("PackedFrameFixture", lightCount);
+    }
+
+    @Benchmark
+    public Object blinkyFrameBuilder() throws Exception {
+        return frameBuilder.run();
+    }
+
+    @Benchmark
+    public Object packedFrame() throws Exception {
+        return packedFrame.run();
+    }
+}
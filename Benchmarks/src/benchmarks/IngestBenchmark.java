@@ -0,0 +1,33 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server's ingest path: parsing an agent's posted JSON and storing it against its host, with the host table
+ * already holding hostCount hosts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int hostCount;
+
+    private Fixture ingest;
+
+    @Setup
+    public void setUp() throws Exception {
+        ingest = Fixtures.create("IngestFixture", hostCount);
+    }
+
+    @Benchmark
+    public Object parseAndUpdateHostMetrics() throws Exception {
+        return ingest.run();
+    }
+}
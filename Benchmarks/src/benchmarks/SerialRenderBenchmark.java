@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SerialBlinkyTapeController encoding frames onto a fake serial port.  With one distinct frame every write after the
+ * first is skipped as unchanged, with two every frame differs from the last one written.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialRenderBenchmark {
+
+    @Param({"1", "2"})
+    public int distinctFrames;
+
+    private Fixture packedFrames;
+    private Fixture blinkyFrames;
+
+    @Setup
+    public void setUp() throws Exception {
+        packedFrames = Fixtures.create("SerialRenderPackedFixture", distinctFrames);
+        blinkyFrames = Fixtures.create("SerialRenderBlinkyFixture", distinctFrames);
+    }
+
+    @Benchmark
+    public Object renderPackedFrame() throws Exception {
+        return packedFrames.run();
+    }
+
+    @Benchmark
+    public Object renderBlinkyFrame() throws Exception {
+        return blinkyFrames.run();
+    }
+}
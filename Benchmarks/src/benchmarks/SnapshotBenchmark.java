@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing the snapshot the server streams to every client on each tick, as JSON or as a binary frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int hostCount;
+
+    private Fixture snapshot;
+    private Fixture binarySnapshot;
+
+    @Setup
+    public void setUp() throws Exception {
+        snapshot = Fixtures.create("SnapshotFixture", hostCount);
+        binarySnapshot = Fixtures.create("BinarySnapshotFixture", hostCount);
+    }
+
+    @Benchmark
+    public Object buildMetricsJSON() throws Exception {
+        return snapshot.run();
+    }
+
+    @Benchmark
+    public Object encodeBinaryTick() throws Exception {
+        return binarySnapshot.run();
+    }
+}
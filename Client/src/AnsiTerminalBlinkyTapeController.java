@@ -0,0 +1,51 @@
+import java.io.PrintStream;
+
+/**
+ * A BlinkyTapeController that draws the tape as a row of colored blocks on an ANSI (24 bit color) terminal, redrawing
+ * the same line for every frame that changes.
+ */
+public class AnsiTerminalBlinkyTapeController extends BaseBlinkyTapeController {
+
+    private final PrintStream out;
+    private final StringBuilder line = new StringBuilder();
+    private PackedBlinkyFrame lastFrame = null;
+
+    public AnsiTerminalBlinkyTapeController() {
+        this(System.out);
+    }
+
+    public AnsiTerminalBlinkyTapeController(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public boolean renderFrame(PackedBlinkyFrame frame) {
+        if (frame.contentEquals(lastFrame)) {
+            return false;
+        }
+
+        line.setLength(0);
+        line.append('\r');
+        for (int light = 0; light < frame.getLightCount(); light++) {
+            final int rgb = frame.getRgbOfLight(light);
+            line.append("\u001B[48;2;")
+                    .append((rgb >> 16) & 0xFF).append(';')
+                    .append((rgb >> 8) & 0xFF).append(';')
+                    .append(rgb & 0xFF).append("m ");
+        }
+        line.append("\u001B[0m");
+        out.print(line);
+        out.flush();
+
+        if (lastFrame == null || lastFrame.getLightCount() != frame.getLightCount()) {
+            lastFrame = new PackedBlinkyFrame(frame.getLightCount());
+        }
+        lastFrame.copyFrom(frame);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        out.println();
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes frames to a BlinkyTapeController on a dedicated thread, so that a slow or stalled serial port never holds up
+ * whoever is drawing the frames.
+ * <p>
+ * Frames are handed over through a single slot where the latest frame wins: if the writer is still busy with an older
+ * frame when a new one is submitted, the frame waiting in the slot is dropped rather than queued, so the device never
+ * falls more than one frame behind.  The handoff is a lock free triple buffer, the drawing thread always has a frame
+ * of its own to draw into ({@link #nextFrame()}), one frame sits in the slot and the writer owns the third.
+ * <p>
+ * Only one thread may draw and submit frames.
+ */
+public class AsyncBlinkyTapeWriter implements AutoCloseable {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;                   // Set when the frame in the slot hasn't been written yet
+    private static final long IDLE_PARK_NANOS = 100000000L; // Safety net in case an unpark is ever missed
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+
+    private final BlinkyTapeController controller;
+    private final Thread thread;
+
+    private final PackedBlinkyFrame[] frames;
+    private final long[] submittedNanos;
+    private final AtomicInteger slot;                       // Index of the frame in the slot, plus the FRESH flag
+    private int backIndex = 0;                              // Owned by the drawing thread
+    private int frontIndex = 2;                             // Owned by the writer thread
+
+    private final AtomicLong framesSubmitted = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();     // Handed to the controller, which had nothing to change
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong totalFrameAgeNanos = new AtomicLong();
+    private volatile long lastWriteNanos = 0;
+    private volatile long maxWriteNanos = 0;
+
+    private volatile boolean running = false;
+    private volatile Throwable failure = null;
+
+    public AsyncBlinkyTapeWriter(BlinkyTapeController controller, int lightCount, String name) {
+        this.controller = controller;
+        this.frames = new PackedBlinkyFrame[] {new PackedBlinkyFrame(lightCount), new PackedBlinkyFrame(lightCount), new PackedBlinkyFrame(lightCount)};
+        this.submittedNanos = new long[frames.length];
+        this.slot = new AtomicInteger(1);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "AsyncBlinkyTapeWriter-" + name);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * @return the frame to draw the next frame into, it belongs to the caller until {@link #submitNextFrame()}
+     */
+    public PackedBlinkyFrame nextFrame() {
+        return frames[backIndex];
+    }
+
+    /**
+     * Hands the frame from {@link #nextFrame()} to the writer, replacing (and dropping) any frame that it hasn't got
+     * to yet.
+     */
+    public void submitNextFrame() {
+        submittedNanos[backIndex] = System.nanoTime();
+        final int previous = slot.getAndSet(backIndex | FRESH);
+        backIndex = previous & INDEX_MASK;
+        framesSubmitted.incrementAndGet();
+        if ((previous & FRESH) != 0) {
+            framesDropped.incrementAndGet();
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return true if writing a frame failed (e.g. the device was unplugged), in which case the writer has stopped
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public long getFramesSubmitted() {
+        return framesSubmitted.get();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * @return how many frames the controller skipped because they wouldn't have changed the device, these aren't
+     * counted as written nor in the write times
+     */
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+
+    public long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    public long getMaxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    public long getAverageWriteNanos() {
+        final long written = framesWritten.get();
+        return written == 0 ? 0 : totalWriteNanos.get() / written;
+    }
+
+    /**
+     * @return how long frames waited between being submitted and being written to the device, on average
+     */
+    public long getAverageFrameAgeNanos() {
+        final long written = framesWritten.get();
+        return written == 0 ? 0 : totalFrameAgeNanos.get() / written;
+    }
+
+    /**
+     * Stops the writer thread and closes the controller.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            controller.close();
+        } catch (Throwable t) {
+            // Purposefully empty, the device is most likely already gone
+        }
+    }
+
+    private void writeFrames() {
+        while (running) {
+            final int current = slot.get();
+            if ((current & FRESH) == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            if (!slot.compareAndSet(current, frontIndex)) {
+                continue;           // A newer frame just arrived, so take that one instead
+            }
+            frontIndex = current & INDEX_MASK;
+
+            final long startNanos = System.nanoTime();
+            final boolean written;
+            try {
+                written = controller.renderFrame(frames[frontIndex]);
+            } catch (Throwable t) {
+                failure = t;
+                running = false;
+                return;
+            }
+            if (!written) {
+                framesSkipped.incrementAndGet();
+                continue;
+            }
+            final long writeNanos = System.nanoTime() - startNanos;
+
+            lastWriteNanos = writeNanos;
+            maxWriteNanos = Math.max(maxWriteNanos, writeNanos);
+            totalWriteNanos.addAndGet(writeNanos);
+            totalFrameAgeNanos.addAndGet(startNanos - submittedNanos[frontIndex]);
+            framesWritten.incrementAndGet();
+        }
+    }
+}
@@ -11,11 +11,27 @@ public abstract class BaseBlinkyTapeController implements BlinkyTapeController,
 
     private static final Log LOG = LogFactory.getLog(BaseBlinkyTapeController.class);
 
+    private PackedBlinkyFrame packedFrame = null;
+
+    /**
+     * Packs the frame into a reused PackedBlinkyFrame and renders that, so implementations only deal with packed frames.
+     */
+    public void renderFrame(BlinkyFrame frame) {
+        if (packedFrame == null || packedFrame.getLightCount() != frame.getLightCount()) {
+            packedFrame = new PackedBlinkyFrame(frame.getLightCount());
+        }
+        packedFrame.copyFrom(frame);
+        this.renderFrame(packedFrame);
+    }
+
     public void renderFrames(BlinkyFrame[] frames) {
         this.renderFrames(frames, 0);
     }
 
     public void renderFrames(BlinkyFrame[] frames, long delayInMilliseconds) {
+        // Each frame is due at a fixed offset from the start, so the time spent rendering doesn't stretch the playback
+        final long delayInNanoseconds = delayInMilliseconds * 1000000L;
+        long deadline = System.nanoTime();
         for (int i = 0; i < frames.length; i++) {
             BlinkyFrame frame = frames[i];
             LOG.info("Rendering Frame: " + i);
@@ -23,10 +39,14 @@ public abstract class BaseBlinkyTapeController implements BlinkyTapeController,
             if (frame != null) {
                 this.renderFrame(frame);
 
-                try {
-                    Thread.sleep(delayInMilliseconds);
-                } catch (Exception ex) {
-                    throw new BlinkyTapeControllerException("Problem sleeping thread: ", ex);
+                deadline += delayInNanoseconds;
+                final long remainingNanoseconds = deadline - System.nanoTime();
+                if (remainingNanoseconds > 0) {
+                    try {
+                        Thread.sleep(remainingNanoseconds / 1000000L, (int) (remainingNanoseconds % 1000000L));
+                    } catch (Exception ex) {
+                        throw new BlinkyTapeControllerException("Problem sleeping thread: ", ex);
+                    }
                 }
             }
         }
@@ -0,0 +1,236 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the server's compact binary metrics stream and applies each frame to a {@link HostSlotTable}, as the binary
+ * counterpart of {@link MetricsPacketDecoder}.
+ * <p>
+ * The stream is a sequence of frames, each an unsigned varint payload length followed by the payload:
+ * <ul>
+ * <li>the frame type (1 byte): {@link #SNAPSHOT} for the first frame on a connection, {@link #DELTA} after that</li>
+ * <li>the number of slots removed (varint), then each removed slot (varint)</li>
+ * <li>the number of hosts added (varint), then for each one its slot (varint), the length of its name (varint), its
+ * UTF-8 name and its CPU usage (1 byte)</li>
+ * <li>the number of values changed (varint), then for each one its slot (varint) and CPU usage (1 byte)</li>
+ * </ul>
+ * The server's slots are its own, so the decoder remembers which of the table's slots each of them maps to, along with
+ * the latest value of each, and re-applies every host on every frame so the table doesn't prune the unchanged ones.
+ * Frames of any other type are skipped.  Malformed frames fail with an IllegalArgumentException.
+ */
+public class BinaryMetricsDecoder {
+
+    public static final String CONTENT_TYPE = "application/x-blinky-metrics";
+
+    static final int SNAPSHOT = 1;      // Forget every slot we knew before applying the frame
+    static final int DELTA = 2;
+
+    private static final double MAX_VALUE = 255.0;
+    private static final int UNUSED = -1;
+
+    private byte[] frame = new byte[8192];
+    private int frameLength = 0;
+    private int position;
+
+    // Per server slot
+    private int[] tableSlots = newTableSlots(16);
+    private double[] cpuUsages = new double[16];
+    private int serverSlotCount = 0;                // One past the highest server slot ever used
+
+    private char[] hostName = new char[64];
+
+    /**
+     * Reads the next frame from the stream into the reusable frame buffer.
+     *
+     * @return false once the stream has ended
+     */
+    public boolean readFrame(InputStream inputStream) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = inputStream.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return false;
+                }
+                throw new EOFException("Metrics stream ended part way through a frame");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed frame length in metrics stream");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+
+        if (length > frame.length) {
+            frame = new byte[Math.max(length, frame.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            final int count = inputStream.read(frame, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Metrics stream ended part way through a frame");
+            }
+            read += count;
+        }
+        frameLength = length;
+        return true;
+    }
+
+    /**
+     * Loads the payload of a frame that has already been read, e.g. when replaying a recording.
+     */
+    public void setFrame(byte[] data, int length) {
+        if (length > frame.length) {
+            frame = new byte[Math.max(length, frame.length * 2)];
+        }
+        System.arraycopy(data, 0, frame, 0, length);
+        frameLength = length;
+    }
+
+    /**
+     * @return the buffer holding the payload of the last frame read, only the first {@link #getFrameLength()} bytes
+     * are valid
+     */
+    public byte[] getFrameData() {
+        return frame;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Applies the last frame read to the table, pruning any host the server has removed.
+     */
+    public void decode(HostSlotTable table) {
+        position = 0;
+        final int type = readByte();
+        if (type != SNAPSHOT && type != DELTA) {
+            return;
+        }
+        if (type == SNAPSHOT) {
+            Arrays.fill(tableSlots, 0, serverSlotCount, UNUSED);
+            serverSlotCount = 0;
+        }
+
+        table.beginPacket();
+
+        final int removedCount = readVarint();
+        for (int i = 0; i < removedCount; i++) {
+            tableSlots[readServerSlot()] = UNUSED;
+        }
+
+        final int addedCount = readVarint();
+        for (int i = 0; i < addedCount; i++) {
+            final int serverSlot = readVarint();
+            if (serverSlot >= tableSlots.length) {
+                grow(Math.max(serverSlot + 1, tableSlots.length * 2));
+            }
+            final int hostNameLength = readHostName();
+            cpuUsages[serverSlot] = readByte() / MAX_VALUE;
+            tableSlots[serverSlot] = table.update(hostName, 0, hostNameLength, cpuUsages[serverSlot]);
+            serverSlotCount = Math.max(serverSlotCount, serverSlot + 1);
+        }
+
+        final int changedCount = readVarint();
+        for (int i = 0; i < changedCount; i++) {
+            final int serverSlot = readServerSlot();
+            cpuUsages[serverSlot] = readByte() / MAX_VALUE;
+        }
+
+        for (int serverSlot = 0; serverSlot < serverSlotCount; serverSlot++) {
+            if (tableSlots[serverSlot] != UNUSED) {
+                table.update(tableSlots[serverSlot], cpuUsages[serverSlot]);
+            }
+        }
+
+        table.endPacket();
+    }
+
+    private int readServerSlot() {
+        final int serverSlot = readVarint();
+        if (serverSlot >= serverSlotCount || tableSlots[serverSlot] == UNUSED) {
+            throw malformed("unknown slot " + serverSlot);
+        }
+        return serverSlot;
+    }
+
+    /**
+     * Decodes a UTF-8 host name into the reusable host name buffer.
+     *
+     * @return the number of chars in the host name
+     */
+    private int readHostName() {
+        final int byteLength = readVarint();
+        if (byteLength > frameLength - position) {
+            throw malformed("truncated host name");
+        }
+        if (byteLength > hostName.length) {
+            hostName = new char[Math.max(byteLength, hostName.length * 2)];
+        }
+        final int end = position + byteLength;
+        int length = 0;
+        while (position < end) {
+            final int b = frame[position++] & 0xFF;
+            if (b < 0x80) {
+                hostName[length++] = (char) b;
+            } else if (b < 0xE0 && position < end) {
+                hostName[length++] = (char) (((b & 0x1F) << 6) | (frame[position++] & 0x3F));
+            } else if (b < 0xF0 && position + 1 < end) {
+                hostName[length++] = (char) (((b & 0x0F) << 12) | ((frame[position] & 0x3F) << 6) | (frame[position + 1] & 0x3F));
+                position += 2;
+            } else if (position + 2 < end) {
+                final int codePoint = ((b & 0x07) << 18) | ((frame[position] & 0x3F) << 12) | ((frame[position + 1] & 0x3F) << 6) | (frame[position + 2] & 0x3F);
+                hostName[length++] = Character.highSurrogate(codePoint);
+                hostName[length++] = Character.lowSurrogate(codePoint);
+                position += 3;
+            } else {
+                hostName[length++] = '\uFFFD';
+                position = end;
+            }
+        }
+        return length;
+    }
+
+    private int readByte() {
+        if (position >= frameLength) {
+            throw malformed("frame ends too soon");
+        }
+        return frame[position++] & 0xFF;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            final int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw malformed("bad varint");
+    }
+
+    private void grow(int capacity) {
+        final int oldCapacity = tableSlots.length;
+        tableSlots = Arrays.copyOf(tableSlots, capacity);
+        Arrays.fill(tableSlots, oldCapacity, capacity, UNUSED);
+        cpuUsages = Arrays.copyOf(cpuUsages, capacity);
+    }
+
+    private static int[] newTableSlots(int capacity) {
+        final int[] tableSlots = new int[capacity];
+        Arrays.fill(tableSlots, UNUSED);
+        return tableSlots;
+    }
+
+    private IllegalArgumentException malformed(String problem) {
+        return new IllegalArgumentException("Malformed metrics frame, " + problem + " at position " + position);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One attached BlinkyTape: the port it's on, which of its lights are usable, and the writer that feeds it frames.
+ */
+public class BlinkyDevice implements AutoCloseable {
+
+    private final String portName;
+    private final int[] lightIndexes;
+    private final AsyncBlinkyTapeWriter writer;
+
+    public BlinkyDevice(String portName, int[] lightIndexes, AsyncBlinkyTapeWriter writer) {
+        this.portName = portName;
+        this.lightIndexes = lightIndexes;
+        this.writer = writer;
+    }
+
+    public String getPortName() {
+        return portName;
+    }
+
+    /**
+     * @return the lights that really work on this device, in the order hosts should fill them
+     */
+    public int[] getLightIndexes() {
+        return lightIndexes;
+    }
+
+    public AsyncBlinkyTapeWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    /**
+     * Parses a light mask such as "0,1,2,4-7,9-13" into the light indexes it covers.
+     */
+    public static int[] parseLightIndexes(String mask) {
+        final List<Integer> lightIndexes = new ArrayList<>();
+        for (String part : mask.split(",")) {
+            final String range = part.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            final int dash = range.indexOf('-');
+            final int first = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            final int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+            if (first < 0 || last < first || last >= BlinkyFrame.DEFAULT_LIGHT_COUNT) {
+                throw new IllegalArgumentException("Invalid light range \"" + range + "\", lights run from 0 to " + (BlinkyFrame.DEFAULT_LIGHT_COUNT - 1));
+            }
+            for (int light = first; light <= last; light++) {
+                lightIndexes.add(light);
+            }
+        }
+
+        final int[] result = new int[lightIndexes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lightIndexes.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.List;
+
+/**
+ * Joins the usable lights of every attached device, in order, into one combined LED space so that hosts can be laid
+ * out across a whole wall of tapes as if it were a single long one.
+ * <p>
+ * Layouts are immutable, when devices come or go a new layout replaces the old one.
+ */
+public class BlinkyDeviceLayout {
+
+    public static final BlinkyDeviceLayout EMPTY = new BlinkyDeviceLayout(new BlinkyDevice[0]);
+
+    private final BlinkyDevice[] devices;
+    private final int[] ledDevices;     // Which device each LED in the combined space is on
+    private final int[] ledLights;      // Which light on that device it is
+
+    public BlinkyDeviceLayout(List<BlinkyDevice> devices) {
+        this(devices.toArray(new BlinkyDevice[devices.size()]));
+    }
+
+    private BlinkyDeviceLayout(BlinkyDevice[] devices) {
+        this.devices = devices;
+
+        int ledCount = 0;
+        for (BlinkyDevice device : devices) {
+            ledCount += device.getLightIndexes().length;
+        }
+        this.ledDevices = new int[ledCount];
+        this.ledLights = new int[ledCount];
+
+        int led = 0;
+        for (int deviceIndex = 0; deviceIndex < devices.length; deviceIndex++) {
+            for (int light : devices[deviceIndex].getLightIndexes()) {
+                ledDevices[led] = deviceIndex;
+                ledLights[led] = light;
+                led++;
+            }
+        }
+    }
+
+    public int getDeviceCount() {
+        return devices.length;
+    }
+
+    public BlinkyDevice getDevice(int deviceIndex) {
+        return devices[deviceIndex];
+    }
+
+    /**
+     * @return the number of usable LEDs across all devices
+     */
+    public int getLedCount() {
+        return ledDevices.length;
+    }
+
+    public int getDeviceOfLed(int led) {
+        return ledDevices[led];
+    }
+
+    public int getLightOfLed(int led) {
+        return ledLights[led];
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a frame renderer at a fixed frame rate on its own thread.  Each frame is scheduled against an absolute deadline
+ * rather than sleeping a fixed delay after rendering, so the time spent rendering doesn't make the animation drift.
+ * When rendering falls so far behind that a deadline has already passed, those frames are skipped and counted as
+ * missed rather than rendered late in a burst.
+ */
+public class BlinkyFrameScheduler {
+
+    private final long framePeriodNanos;
+    private final Runnable renderer;
+
+    private final AtomicLong framesRendered = new AtomicLong();
+    private final AtomicLong framesMissed = new AtomicLong();
+    private volatile long maxRenderNanos = 0;
+
+    private volatile boolean running = false;
+    private final Thread thread;
+
+    public BlinkyFrameScheduler(double framesPerSecond, Runnable renderer) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("The frame rate must be more than 0, it was " + framesPerSecond);
+        }
+        this.framePeriodNanos = (long) (1000000000L / framesPerSecond);
+        this.renderer = renderer;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFrames();
+            }
+        }, "BlinkyFrameScheduler");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts rendering frames, a scheduler can only be started once.
+     */
+    public synchronized void start() {
+        running = true;
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return the id of the thread frames are rendered on, e.g. to measure how much it allocates
+     */
+    public long getThreadId() {
+        return thread.getId();
+    }
+
+    public long getFramePeriodNanos() {
+        return framePeriodNanos;
+    }
+
+    public long getFramesRendered() {
+        return framesRendered.get();
+    }
+
+    public long getFramesMissed() {
+        return framesMissed.get();
+    }
+
+    public long getMaxRenderNanos() {
+        return maxRenderNanos;
+    }
+
+    private void runFrames() {
+        long deadline = System.nanoTime();
+        while (running) {
+            final long renderStartNanos = System.nanoTime();
+            try {
+                renderer.run();
+            } catch (Throwable t) {
+                System.err.println("Unable to render frame: " + t.getMessage());
+            }
+            final long currentNanos = System.nanoTime();
+            maxRenderNanos = Math.max(maxRenderNanos, currentNanos - renderStartNanos);
+            framesRendered.incrementAndGet();
+
+            deadline += framePeriodNanos;
+            final long lateNanos = currentNanos - deadline;
+            if (lateNanos >= framePeriodNanos) {
+                // We've already blown through at least the next deadline, so skip those frames rather than catching up
+                final long missed = lateNanos / framePeriodNanos;
+                framesMissed.addAndGet(missed);
+                deadline += missed * framePeriodNanos;
+            }
+
+            long remainingNanos;
+            while (running && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+        }
+    }
+}
@@ -1,43 +1,166 @@
 import jssc.SerialPortList;
+import org.apache.http.Header;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 import java.awt.*;
-import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
 
 /**
  * Example command line:
  * <p>
  * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient 192.168.5.100:8080
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient 192.168.5.100:8080 60
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient 192.168.5.100:8080 60 ".*ttyACM\d+" devices.properties
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient 192.168.5.100:8080 60 - devices.properties
+ * <p>
+ * Every serial port matching the pattern is driven as a BlinkyTape, along with every port listed in the device mask
+ * file, and hosts are laid out across all of their LEDs.  Without a pattern the ports BlinkyTapes show up as are used,
+ * which may also catch another USB serial device (e.g. an Arduino), so give a pattern or "-" (just the ports in the
+ * mask file) to keep to specific tapes.  The mask file lists which lights work on each port (e.g. "COM3=0-2,4-7,9-13"),
+ * ports it doesn't mention use the lights that work on our original device.
+ * <p>
+ * Without any hardware, frames can go to a headless target instead, and a session can be recorded and then replayed
+ * (optionally many times faster than real time) to measure frame rate and allocation per frame:
+ * <p>
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient 192.168.5.100:8080 --output ansi --record session.blinky
+ * java -classpath out/production/Agent;Agent/lib/* BlinkyMetricsClient --replay session.blinky --speed 50 --output memory 1000
+ * <p>
+ * Metrics are streamed in the server's compact binary format, falling back to JSON lines when the server doesn't offer
+ * it (or when asked to with --format json).
  * <p>
  * Created by squinn on 4/21/2017.
  */
 public class BlinkyMetricsClient {
 
-    private static final int LED_FRAME_RATE_DELAY_MILLIS = 250;             // Number of milliseconds between LED frame updates
+    private static final double DEFAULT_FRAMES_PER_SECOND = 30;             // Number of LED frame updates per second (unless given on the command line)
     private static final int STATUS_INDICATOR_LIGNT_DELAY_MILLIS = 750;     // Number of seconds between flashes of the status indicator light
+    private static final int STATUS_INDICATOR_LIGHT_ON_MILLIS = 250;        // How long the status indicator light stays on for each flash
+    private static final long FRAME_STATISTICS_DELAY_MILLIS = 10000;        // How often we report missed frames (if there are any)
+    private static final long DEVICE_DISCOVERY_DELAY_MILLIS = 2000;         // How often we look for Blinky devices being attached or removed
+
+    private static final int[] VALID_LIGHT_INDEXES = new int[] {0,1,2,4,5,6,7,9,10,11,12,13};   // Which lights really work on our output device (unless a device mask says otherwise)
 
-    private static final int[] VALID_LIGHT_INDEXES = new int[] {0,1,2,4,5,6,7,9,10,11,12,13};   // Which lights really work on our output device
+    // BlinkyTapes show up as USB CDC devices: COMn on Windows, ttyACMn on Linux and tty.usbmodem* on a Mac
+    private static final String DEFAULT_BLINKY_PORT_PATTERN = ".*(COM\\d+|ttyACM\\d+|usbmodem.*)";
+    private static final String NO_PORT_PATTERN = "-";                      // Only use the ports listed in the device mask file
+
+    // Where frames go, anything other than serial is a single headless device (e.g. for running without hardware)
+    private static final String SERIAL_OUTPUT = "serial";
+    private static final String MEMORY_OUTPUT = "memory";
+    private static final String ANSI_OUTPUT = "ansi";
+    private static final String CAPTURE_OUTPUT_PREFIX = "capture:";
+
+    // How we ask the server to stream metrics
+    private static final String BINARY_FORMAT = "binary";
+    private static final String JSON_FORMAT = "json";
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Usage: java BlinkyMetricsClient <server[:port]>");
+        // Pull out the --options, whatever is left is positional
+        final Map<String, String> options = new HashMap<>();
+        final List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+
+        // When replaying there's no server to connect to, so the positional arguments start one earlier
+        final String replayFileName = options.get("replay");
+        final int firstArgument = replayFileName == null ? 1 : 0;
+        if (arguments.size() < firstArgument) {
+            System.err.println("Usage: java BlinkyMetricsClient <server[:port]> [framesPerSecond] [portPattern|-] [deviceMaskFile] [--output serial|memory|ansi|capture:<file>] [--format binary|json] [--record <file>]");
+            System.err.println("       java BlinkyMetricsClient --replay <file> [--speed <times>] [framesPerSecond] [portPattern|-] [deviceMaskFile] [--output serial|memory|ansi|capture:<file>]");
             return;
         }
-        new BlinkyMetricsClient(args[0]).start();
+
+        final Properties deviceMasks = new Properties();
+        if (arguments.size() > firstArgument + 2) {
+            final String deviceMaskFileName = arguments.get(firstArgument + 2);
+            try (Reader reader = new InputStreamReader(new FileInputStream(deviceMaskFileName), "UTF-8")) {
+                deviceMasks.load(reader);
+            } catch (IOException e) {
+                System.err.println("Unable to read device mask file " + deviceMaskFileName + " due to: " + e.getMessage());
+                return;
+            }
+
+            // Check every mask now, rather than finding a bad one only once its tape is plugged in
+            for (String portName : deviceMasks.stringPropertyNames()) {
+                try {
+                    BlinkyDevice.parseLightIndexes(deviceMasks.getProperty(portName));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid light mask for port " + portName + " in " + deviceMaskFileName + ": " + e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        BlinkyRecordingWriter recordingWriter = null;
+        if (options.containsKey("record")) {
+            try {
+                recordingWriter = new BlinkyRecordingWriter(options.get("record"));
+            } catch (IOException e) {
+                System.err.println("Unable to create recording " + options.get("record") + " due to: " + e.getMessage());
+                return;
+            }
+        }
+
+        final BlinkyMetricsClient client = new BlinkyMetricsClient(
+                replayFileName == null ? arguments.get(0) : null,
+                arguments.size() > firstArgument ? Double.parseDouble(arguments.get(firstArgument)) : DEFAULT_FRAMES_PER_SECOND,
+                arguments.size() <= firstArgument + 1 ? Pattern.compile(DEFAULT_BLINKY_PORT_PATTERN)
+                        : arguments.get(firstArgument + 1).equals(NO_PORT_PATTERN) ? null : Pattern.compile(arguments.get(firstArgument + 1)),
+                deviceMasks,
+                options.containsKey("output") ? options.get("output") : SERIAL_OUTPUT,
+                options.containsKey("format") ? options.get("format") : BINARY_FORMAT,
+                recordingWriter
+        );
+        if (replayFileName == null) {
+            client.start();
+        } else {
+            try {
+                client.replay(replayFileName, options.containsKey("speed") ? Double.parseDouble(options.get("speed")) : 1.0);
+            } catch (IOException e) {
+                System.err.println("Unable to replay " + replayFileName + " due to: " + e.getMessage());
+            }
+        }
     }
 
     private String serverAddress;
-
-    private BlinkyMetricsClient(String serverAddress) {
+    private double framesPerSecond;
+    private Pattern blinkyPortPattern;      // Null when only the ports in the device mask file are used
+    private Properties deviceMasks;
+    private String output;
+    private String format;
+    private volatile BlinkyRecordingWriter recordingWriter;
+
+    private BlinkyMetricsClient(String serverAddress, double framesPerSecond, Pattern blinkyPortPattern, Properties deviceMasks,
+                                String output, String format, BlinkyRecordingWriter recordingWriter) {
         this.serverAddress = serverAddress;
+        this.framesPerSecond = framesPerSecond;
+        this.blinkyPortPattern = blinkyPortPattern;
+        this.deviceMasks = deviceMasks;
+        this.output = output;
+        this.format = format;
+        this.recordingWriter = recordingWriter;
+    }
+
+    // Package private so the benchmarks can push packets through processPacket without a server or any devices
+    BlinkyMetricsClient() {
+        this(null, DEFAULT_FRAMES_PER_SECOND, null, new Properties(), MEMORY_OUTPUT, JSON_FORMAT, null);
     }
 
     @SuppressWarnings("InfiniteLoopStatement")
@@ -46,6 +169,15 @@ public class BlinkyMetricsClient {
         final LedManager ledManager = new LedManager();
         ledManager.start();
 
+        // Make sure recordings and captures are complete when we're stopped
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                ledManager.close();
+                closeRecording();
+            }
+        });
+
         System.out.println("BlinkinMetricsClient started, attempting to connect to: " + serverAddress);
 
         // Continuously wait on available connections to our server
@@ -54,14 +186,28 @@ public class BlinkyMetricsClient {
             try {
                 final CloseableHttpClient httpclient = HttpClients.createDefault();
                 final HttpGet httpGet = new HttpGet("http://" + serverAddress + "/metrics");
+                if (BINARY_FORMAT.equals(format)) {
+                    httpGet.setHeader("Accept", BinaryMetricsDecoder.CONTENT_TYPE + ", application/json");
+                }
                 final CloseableHttpResponse response = httpclient.execute(httpGet);
-                final BufferedReader inputReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
 
-                System.out.println("Successfully connected to: " + serverAddress);
+                // Servers that don't know the binary format just carry on sending JSON
+                final Header contentType = response.getFirstHeader("Content-Type");
+                final boolean binary = contentType != null && contentType.getValue().startsWith(BinaryMetricsDecoder.CONTENT_TYPE);
+
+                System.out.println("Successfully connected to: " + serverAddress + (binary ? " (binary)" : ""));
                 connected = true;
-                String packet;
-                while ((packet = inputReader.readLine()) != null) {
-                    processPacket(packet, ledManager);
+                if (binary) {
+                    final InputStream inputStream = response.getEntity().getContent();
+                    while (binaryDecoder.readFrame(inputStream)) {
+                        processBinaryPacket(ledManager);
+                    }
+                } else {
+                    final Reader inputReader = new InputStreamReader(response.getEntity().getContent(), "UTF-8");
+                    packetDecoder.reset();
+                    while (packetDecoder.readPacket(inputReader)) {
+                        processPacket(ledManager);
+                    }
                 }
             } catch (Throwable t) {
                 if (connected) {
@@ -77,68 +223,263 @@ public class BlinkyMetricsClient {
         }
     }
 
+    private final MetricsPacketDecoder packetDecoder = new MetricsPacketDecoder();
+    private final BinaryMetricsDecoder binaryDecoder = new BinaryMetricsDecoder();
+    private final HostSlotTable hostSlotTable = new HostSlotTable();
     private int hostCount = 0;
 
-    private void processPacket(String packet, LedManager ledManager) {
-        final JSONObject jsonObject = new JSONObject(packet);
-        final JSONArray hosts = jsonObject.getJSONArray("hosts");
-
-        if (hosts.length() != hostCount) {
-            hostCount = hosts.length();
-            System.out.println("Receiving data for " + hostCount + " hosts");
+    /**
+     * Records the packet waiting in the packet decoder (if we're recording), applies it to the host slot table and
+     * starts the LEDs fading towards it.
+     */
+    void processPacket(LedManager ledManager) {
+        if (packetDecoder.isPacketEmpty()) {
+            return;
         }
+        final BlinkyRecordingWriter writer = recordingWriter;      // closeRecording() can clear it from another thread
+        if (writer != null) {
+            try {
+                writer.writePacket(packetDecoder.getPacketChars(), packetDecoder.getPacketLength());
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Unable to record packet, recording stopped due to: " + e.getMessage());
+                closeRecording();
+            }
+        }
+        packetDecoder.decode(hostSlotTable);
+        updateLeds(ledManager);
+    }
 
-        final Map<String, Metrics> metricsPerHost = new HashMap<>();
-        for (int i = 0; i < hosts.length(); i++) {
-            final JSONObject hostJsonObject = hosts.getJSONObject(i);
-            // System.out.println("Host " + (i + 1) + " CPU: " + String.format("%3.0f%%", hostJsonObject.getDouble("cpuUsage") * 100.0));
-            final Metrics metrics = new Metrics();
-            metrics.cpuUsage = hostJsonObject.getDouble("cpuUsage");
-            metricsPerHost.put(hostJsonObject.getString("hostName"), metrics);
+    /**
+     * The binary stream counterpart of {@link #processPacket(LedManager)}, for the frame waiting in the binary decoder.
+     */
+    void processBinaryPacket(LedManager ledManager) {
+        final BlinkyRecordingWriter writer = recordingWriter;
+        if (writer != null) {
+            try {
+                writer.writeBinaryPacket(binaryDecoder.getFrameData(), binaryDecoder.getFrameLength());
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Unable to record packet, recording stopped due to: " + e.getMessage());
+                closeRecording();
+            }
         }
+        binaryDecoder.decode(hostSlotTable);
+        updateLeds(ledManager);
+    }
 
-        ledManager.updateLeds(metricsPerHost);
+    MetricsPacketDecoder getPacketDecoder() {
+        return packetDecoder;
     }
 
-    private class Metrics {
-        double cpuUsage;
+    BinaryMetricsDecoder getBinaryDecoder() {
+        return binaryDecoder;
     }
 
-    private class LedManager {
+    private void updateLeds(LedManager ledManager) {
+        if (hostSlotTable.getActiveHostCount() != hostCount) {
+            hostCount = hostSlotTable.getActiveHostCount();
+            System.out.println("Receiving data for " + hostCount + " hosts");
+        }
+
+        ledManager.updateLeds(hostSlotTable);
+    }
 
-        private BlinkyTapeController blinkyTapeController = null;
+    /**
+     * Feeds the packets from a recording through the client as if they came from the server, speed times faster than
+     * they were recorded (or as fast as possible if speed is 0), then reports how well the frame pipeline kept up.
+     */
+    private void replay(String replayFileName, double speed) throws IOException {
+        final LedManager ledManager = new LedManager();
+        ledManager.start();
 
-        private boolean checkBlinkyConnection() {
-            if (blinkyTapeController == null) {
-                final String blinkyPort = getBlinkyPort();
-                if (blinkyPort == null) {
-                    return false;
+        // Allocation is measured per thread, which not every JVM supports
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final com.sun.management.ThreadMXBean allocationMXBean = threadMXBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+        final long replayThreadId = Thread.currentThread().getId();
+        final long frameThreadId = ledManager.frameScheduler.getThreadId();
+
+        System.out.println("Replaying " + replayFileName + (speed > 0 ? " at " + speed + " times real speed" : " as fast as possible"));
+
+        long packets = 0;
+        long decodeNanos = 0;
+        long decodeAllocatedBytes = 0;
+        long firstFramesRendered = 0;
+        long firstFrameAllocatedBytes = 0;
+        final Map<BlinkyDevice, long[]> firstDeviceFrames = new HashMap<>();     // Written, dropped and unchanged
+        final long startNanos = System.nanoTime();
+        try (BlinkyRecordingReader reader = new BlinkyRecordingReader(replayFileName)) {
+            while (reader.next()) {
+                if (reader.getType() != BlinkyRecording.PACKET && reader.getType() != BlinkyRecording.BINARY_PACKET) {
+                    continue;
                 }
-                try {
-                    blinkyTapeController = new SerialBlinkyTapeController(blinkyPort);
-                } catch (Throwable t) {
-                    System.err.println("Failure to connect to blinky on port " + blinkyPort + " due to: " + t.getMessage());
-                    return false;
+
+                if (speed > 0) {
+                    final long dueNanos = startNanos + (long) (reader.getTimestampNanos() / speed);
+                    long remainingNanos;
+                    while ((remainingNanos = dueNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(remainingNanos);
+                    }
+                }
+
+                final long allocatedBytes = allocationMXBean == null ? 0 : allocationMXBean.getThreadAllocatedBytes(replayThreadId);
+                final long decodeStartNanos = System.nanoTime();
+                if (reader.getType() == BlinkyRecording.BINARY_PACKET) {
+                    binaryDecoder.setFrame(reader.getData(), reader.getLength());
+                    processBinaryPacket(ledManager);
+                } else {
+                    packetDecoder.setPacket(reader.getData(), reader.getLength());
+                    processPacket(ledManager);
+                }
+                decodeNanos += System.nanoTime() - decodeStartNanos;
+                if (allocationMXBean != null) {
+                    decodeAllocatedBytes += allocationMXBean.getThreadAllocatedBytes(replayThreadId) - allocatedBytes;
+                }
+
+                // Only count frames from the first packet on, so start up costs don't skew the per frame numbers
+                if (packets++ == 0) {
+                    firstFramesRendered = ledManager.frameScheduler.getFramesRendered();
+                    firstFrameAllocatedBytes = allocationMXBean == null ? 0 : allocationMXBean.getThreadAllocatedBytes(frameThreadId);
+                    final BlinkyDeviceLayout layout = ledManager.deviceLayout;
+                    for (int i = 0; i < layout.getDeviceCount(); i++) {
+                        final AsyncBlinkyTapeWriter writer = layout.getDevice(i).getWriter();
+                        firstDeviceFrames.put(layout.getDevice(i), new long[] {writer.getFramesWritten(), writer.getFramesDropped(), writer.getFramesSkipped()});
+                    }
                 }
             }
-            return true;
         }
 
-        private long lastMetricsUpdatedMillis = 0;
+        // Keep drawing until the last packet's fade has finished, so the frames it needs are counted too
+        long remainingNanos;
+        while (packets > 0 && (remainingNanos = ledManager.ledAnimator.getTransitionEndNanos() - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNanos);
+        }
 
+        final double elapsedSeconds = (System.nanoTime() - startNanos) / 1000000000.0;
+        final long framesRendered = ledManager.frameScheduler.getFramesRendered() - firstFramesRendered;
+        final long frameAllocatedBytes = allocationMXBean == null ? -1 : allocationMXBean.getThreadAllocatedBytes(frameThreadId) - firstFrameAllocatedBytes;
+        final BlinkyDeviceLayout layout = ledManager.deviceLayout;
+        ledManager.close();
+
+        // Only once the writers have stopped, so every device's numbers cover the same frames
+        final List<String> deviceReports = new ArrayList<>();
+        for (int i = 0; i < layout.getDeviceCount(); i++) {
+            final BlinkyDevice device = layout.getDevice(i);
+            final AsyncBlinkyTapeWriter writer = device.getWriter();
+            final long[] firstFrames = firstDeviceFrames.containsKey(device) ? firstDeviceFrames.get(device) : new long[3];
+            final long framesWritten = writer.getFramesWritten() - firstFrames[0];
+            deviceReports.add(String.format("Blinky device on port %s wrote %d frames (%.1f frames/sec), %d dropped and %d unchanged",
+                    device.getPortName(), framesWritten, framesWritten / elapsedSeconds,
+                    writer.getFramesDropped() - firstFrames[1], writer.getFramesSkipped() - firstFrames[2]));
+        }
 
+        System.out.println();
+        System.out.println(String.format("Replayed %d packets in %.2f seconds, %.1f microseconds and %d bytes allocated per packet",
+                packets, elapsedSeconds, packets == 0 ? 0.0 : decodeNanos / 1000.0 / packets, packets == 0 ? 0 : decodeAllocatedBytes / packets));
+        System.out.println(String.format("Rendered %d frames (%.1f frames/sec, %d missed at %s frames/sec), %s bytes allocated per frame",
+                framesRendered, framesRendered / elapsedSeconds, ledManager.frameScheduler.getFramesMissed(), framesPerSecond,
+                frameAllocatedBytes < 0 || framesRendered == 0 ? "unknown" : String.valueOf(frameAllocatedBytes / framesRendered)));
+        for (String deviceReport : deviceReports) {
+            System.out.println(deviceReport);
+        }
+        if (speed <= 0) {
+            // The fades shrink to however fast the packets were decoded, so there's next to nothing to draw
+            System.out.println("Packets weren't replayed in real time, so the frame numbers don't reflect what the devices would show live");
+        }
+    }
 
-        void updateLeds(Map<String, Metrics> metricsPerHost) {
+    private synchronized void closeRecording() {
+        if (recordingWriter != null) {
             try {
-                lastMetricsUpdatedMillis = System.currentTimeMillis();
+                recordingWriter.close();
+            } catch (IOException e) {
+                // Purposefully empty, there's nothing more we can do with it
+            }
+            recordingWriter = null;
+        }
+    }
 
-                final List<Color> newLedColors = new ArrayList<>();
-                for (Map.Entry<String, Metrics> entry : metricsPerHost.entrySet()) {
-                    final double cpuUsage = entry.getValue().cpuUsage;
-                    newLedColors.add(new Color((float)cpuUsage, 1.0f - (float)cpuUsage, 0.0f));
+    class LedManager {
+
+        // Replaced as a whole whenever devices come or go, so the frame thread always sees a consistent set
+        private volatile BlinkyDeviceLayout deviceLayout = BlinkyDeviceLayout.EMPTY;
+
+        // Ports we've already complained about, so a port we can't open isn't reported on every discovery
+        private final Set<String> failedPortNames = new HashSet<>();
+        private boolean reportedNoDevices = false;
+
+        private void discoverDevices() {
+            final List<BlinkyDevice> devices = new ArrayList<>();
+            final Set<String> attachedPortNames = new HashSet<>();
+            boolean changed = false;
+
+            final BlinkyDeviceLayout currentLayout = deviceLayout;
+            for (int i = 0; i < currentLayout.getDeviceCount(); i++) {
+                final BlinkyDevice device = currentLayout.getDevice(i);
+                if (device.getWriter().isFailed()) {
+                    System.out.println("Blinky device on port " + device.getPortName() + " appears to have disconnected");
+                    device.close();
+                    changed = true;
+                } else {
+                    devices.add(device);
+                    attachedPortNames.add(device.getPortName());
+                }
+            }
+
+            for (String portName : getBlinkyPorts()) {
+                if (attachedPortNames.contains(portName)) {
+                    continue;
+                }
+                AsyncBlinkyTapeWriter writer = null;
+                try {
+                    // Work out the lights before opening the port, so there's nothing to clean up if the mask is bad
+                    final int[] lightIndexes = getLightIndexes(portName);
+                    final BlinkyTapeController blinkyTapeController = new SerialBlinkyTapeController(portName);
+                    writer = new AsyncBlinkyTapeWriter(blinkyTapeController, BlinkyFrame.DEFAULT_LIGHT_COUNT, portName);
+                    writer.start();
+                    devices.add(new BlinkyDevice(portName, lightIndexes, writer));
+                    failedPortNames.remove(portName);
+                    System.out.println("Found connection to Blinky device on port " + portName + " with " + lightIndexes.length + " usable lights");
+                    changed = true;
+                } catch (Throwable t) {
+                    if (writer != null) {
+                        writer.close();         // Stops its thread and closes the port
+                    }
+                    if (failedPortNames.add(portName)) {
+                        System.err.println("Failure to connect to blinky on port " + portName + " due to: " + t.getMessage());
+                    }
                 }
-                currentLedColors = newLedColors;
+            }
+
+            if (changed) {
+                // Keep the devices in a predictable order so hosts land on the same tape every time
+                Collections.sort(devices, new Comparator<BlinkyDevice>() {
+                    @Override
+                    public int compare(BlinkyDevice device1, BlinkyDevice device2) {
+                        return device1.getPortName().compareTo(device2.getPortName());
+                    }
+                });
+                deviceLayout = new BlinkyDeviceLayout(devices);
+                System.out.println("Driving " + devices.size() + " Blinky devices with " + deviceLayout.getLedCount() + " LEDs in total");
+            }
+
+            // Say so when there's nothing to drive, rather than leaving an apparently healthy client with no lights
+            if (devices.isEmpty() && !reportedNoDevices) {
+                System.out.println("No Blinky devices found on ports " + (blinkyPortPattern == null ? "" : "matching "
+                        + blinkyPortPattern.pattern() + " or ") + "listed in the device mask file, still looking");
+            }
+            reportedNoDevices = devices.isEmpty();
+        }
+
+        private volatile long lastMetricsUpdatedMillis = 0;
 
+        private final LedAnimator ledAnimator = new LedAnimator();
+
+        void updateLeds(HostSlotTable hostSlotTable) {
+            try {
+                lastMetricsUpdatedMillis = System.currentTimeMillis();
+                ledAnimator.update(hostSlotTable, System.nanoTime());
             } catch (Throwable t) {
                 System.err.println("Unable to update Blinky leds: " + t.getMessage());
                 t.printStackTrace();
@@ -147,108 +488,196 @@ public class BlinkyMetricsClient {
 
 
         private long statusIndicatorOnMillis = 0;
-        private boolean connected = false;
-        private List<Color> currentLedColors = new ArrayList<>();
 
-        private void drawCurrentFrame() {
-            if (checkBlinkyConnection() && blinkyTapeController != null) {
-                try {
+        // Only reallocated when the layout changes
+        private int[] ledRgbs = new int[0];
+        private PackedBlinkyFrame[] deviceFrames = new PackedBlinkyFrame[0];
 
-                    final BlinkyFrameBuilder blinkyFrameBuilder = new BlinkyFrameBuilder()
-                            .withAllLightsSetTo(Color.BLACK);
-
-                    final long currentMillis = System.currentTimeMillis();
-                    final List<Color> ledColors = currentLedColors;
+        private void drawCurrentFrame() {
+            final BlinkyDeviceLayout layout = deviceLayout;
+            if (layout.getDeviceCount() == 0) {
+                return;
+            }
+            if (ledRgbs.length != layout.getLedCount()) {
+                ledRgbs = new int[layout.getLedCount()];
+            }
+            if (deviceFrames.length != layout.getDeviceCount()) {
+                deviceFrames = new PackedBlinkyFrame[layout.getDeviceCount()];
+            }
 
-                    // If no hosts are reporting in, then just blink a light to show if we're connected to the server or not
-                    if(currentMillis - lastMetricsUpdatedMillis > 2000) {
-                        ledColors.clear();
-                    }
-                    if(ledColors.size() <= 0) {
-                        if (currentMillis - statusIndicatorOnMillis > STATUS_INDICATOR_LIGNT_DELAY_MILLIS) {
-                            if (currentMillis - lastMetricsUpdatedMillis > 1000) {
-                                blinkyFrameBuilder
-                                        .withSpecificLightSetTo(0, Color.RED);
-                            } else {
-                                blinkyFrameBuilder
-                                        .withSpecificLightSetTo(0, Color.GREEN);
-                            }
-                            statusIndicatorOnMillis = currentMillis;
-                        }
-                    } else {
-                        // The host metric information is current, so render their CPU levels on the LEDs
-                        int i = 0;
-                        for (Color ledColor : ledColors) {
-                            if(i >= VALID_LIGHT_INDEXES.length) {
-                                break;
-                            }
-                            blinkyFrameBuilder.withSpecificLightSetTo(VALID_LIGHT_INDEXES[i], ledColor);
-                            i++;
-                        }
-                    }
+            final long currentMillis = System.currentTimeMillis();
+            boolean statusIndicatorOn = false;
+            int statusIndicatorRgb = 0;
 
-                    blinkyTapeController.renderFrame(blinkyFrameBuilder.build());
-
-                    /*
-                    blinkyTapeController.renderFrame(new BlinkyFrameBuilder()
-                            .withAllLightsSetTo(Color.BLACK)
-                            .withSpecificLightSetTo(0, Color.RED)
-                            .withSpecificLightSetTo(1, Color.ORANGE)
-                            .withSpecificLightSetTo(2, Color.YELLOW)
-                            .withSpecificLightSetTo(3, Color.GREEN)
-                            .withSpecificLightSetTo(4, Color.BLUE)
-                            .withSpecificLightSetTo(5, Color.MAGENTA)
-                            .withSpecificLightSetTo(6, Color.PINK)
-                            .withSpecificLightSetTo(7, Color.RED)
-                            .withSpecificLightSetTo(8, Color.ORANGE)
-                            .withSpecificLightSetTo(9, Color.YELLOW)
-                            .withSpecificLightSetTo(10, Color.GREEN)
-                            .withSpecificLightSetTo(11, Color.BLUE)
-                            .withSpecificLightSetTo(12, Color.MAGENTA)
-                            .withSpecificLightSetTo(13, Color.PINK).build()
-                    );
-                    */
-
-                    if (!connected) {
-                        System.out.println("Found connection to Blinky device");
-                        connected = true;
-                    }
-
-                } catch (Throwable t) {
+            // If no hosts are reporting in, then just blink a light to show if we're connected to the server or not
+            if(currentMillis - lastMetricsUpdatedMillis > 2000) {
+                ledAnimator.clear();
+            }
+            if(ledAnimator.getActiveHostCount() <= 0) {
+                Arrays.fill(ledRgbs, 0);
+                if (currentMillis - statusIndicatorOnMillis > STATUS_INDICATOR_LIGNT_DELAY_MILLIS) {
+                    statusIndicatorOnMillis = currentMillis;
+                }
+                if (currentMillis - statusIndicatorOnMillis < STATUS_INDICATOR_LIGHT_ON_MILLIS) {
+                    statusIndicatorOn = true;
+                    statusIndicatorRgb = currentMillis - lastMetricsUpdatedMillis > 1000 ? Color.RED.getRGB() : Color.GREEN.getRGB();
+                }
+            } else {
+                // The host metric information is current, so render their CPU levels across all of the LEDs (each host keeps its slot's LED)
+                ledAnimator.render(ledRgbs, ledRgbs.length, System.nanoTime());
+            }
 
-                    if (connected) {
-                        System.out.println("Blinky device appears to have disconnected");
-                        connected = true;
+            // Each device has its own writer, so handing frames over never waits on a slow device
+            for (int i = 0; i < layout.getDeviceCount(); i++) {
+                final AsyncBlinkyTapeWriter writer = layout.getDevice(i).getWriter();
+                deviceFrames[i] = writer.isFailed() ? null : writer.nextFrame();
+                if (deviceFrames[i] != null) {
+                    deviceFrames[i].clear();
+                }
+            }
+            for (int led = 0; led < ledRgbs.length; led++) {
+                final PackedBlinkyFrame frame = deviceFrames[layout.getDeviceOfLed(led)];
+                if (frame != null) {
+                    frame.setLight(layout.getLightOfLed(led), ledRgbs[led]);
+                }
+            }
+            for (int i = 0; i < layout.getDeviceCount(); i++) {
+                if (deviceFrames[i] != null) {
+                    if (statusIndicatorOn) {
+                        deviceFrames[i].setLight(0, statusIndicatorRgb);
                     }
+                    recordFrame(i, deviceFrames[i]);
+                    layout.getDevice(i).getWriter().submitNextFrame();
+                }
+            }
+        }
 
-                    if (blinkyTapeController != null) {
-                        blinkyTapeController.close();
-                    }
-                    blinkyTapeController = null;
+        private void recordFrame(int deviceIndex, PackedBlinkyFrame frame) {
+            final BlinkyRecordingWriter writer = recordingWriter;
+            if (writer != null) {
+                try {
+                    writer.writeFrame(deviceIndex, frame);
+                } catch (IOException e) {
+                    System.err.println("Unable to record frame, recording stopped due to: " + e.getMessage());
+                    closeRecording();
                 }
             }
         }
 
-        private String getBlinkyPort() {
-            String[] portNames = SerialPortList.getPortNames();
-            for (String portName : portNames) {
-                if (portName.contains("COM3")) {
-                    return portName;
+        private List<String> getBlinkyPorts() {
+            final List<String> blinkyPorts = new ArrayList<>();
+            for (String portName : SerialPortList.getPortNames()) {
+                if (deviceMasks.containsKey(portName) || (blinkyPortPattern != null && blinkyPortPattern.matcher(portName).matches())) {
+                    blinkyPorts.add(portName);
                 }
             }
-            return null;
+            return blinkyPorts;
         }
 
+        /**
+         * Creates the single device for a headless output, used instead of discovering serial ports.
+         */
+        private BlinkyDevice createHeadlessDevice() {
+            final BlinkyTapeController blinkyTapeController;
+            if (MEMORY_OUTPUT.equals(output)) {
+                blinkyTapeController = new InMemoryBlinkyTapeController();
+            } else if (ANSI_OUTPUT.equals(output)) {
+                blinkyTapeController = new AnsiTerminalBlinkyTapeController();
+            } else if (output.startsWith(CAPTURE_OUTPUT_PREFIX)) {
+                blinkyTapeController = new FileCaptureBlinkyTapeController(output.substring(CAPTURE_OUTPUT_PREFIX.length()));
+            } else {
+                throw new IllegalArgumentException("Unknown output: " + output);
+            }
+            final AsyncBlinkyTapeWriter writer = new AsyncBlinkyTapeWriter(blinkyTapeController, BlinkyFrame.DEFAULT_LIGHT_COUNT, output);
+            writer.start();
+            return new BlinkyDevice(output, getLightIndexes(output), writer);
+        }
+
+        private int[] getLightIndexes(String portName) {
+            final String mask = deviceMasks.getProperty(portName);
+            return mask == null ? VALID_LIGHT_INDEXES : BlinkyDevice.parseLightIndexes(mask);
+        }
+
+        private final BlinkyFrameScheduler frameScheduler = new BlinkyFrameScheduler(framesPerSecond, new Runnable() {
+            @Override
+            public void run() {
+                drawCurrentFrame();
+            }
+        });
+        private final Timer deviceDiscoveryTimer = new Timer(true);
+        private final Timer frameStatisticsTimer = new Timer(true);
+
         void start() {
-            final Timer uploadCheckerTimer = new Timer(true);
-            uploadCheckerTimer.scheduleAtFixedRate(
+            if (SERIAL_OUTPUT.equals(output)) {
+                // Look for tapes being plugged in or pulled out
+                deviceDiscoveryTimer.schedule(
+                        new TimerTask() {
+                            public void run() {
+                                try {
+                                    discoverDevices();
+                                } catch (Throwable t) {
+                                    System.err.println("Unable to discover Blinky devices: " + t.getMessage());
+                                }
+                            }
+                        }, 0, DEVICE_DISCOVERY_DELAY_MILLIS
+                );
+            } else {
+                deviceLayout = new BlinkyDeviceLayout(Collections.singletonList(createHeadlessDevice()));
+            }
+
+            frameScheduler.start();
+
+            // Let us know if we can't keep up with the frame rate, so it can be turned down
+            frameStatisticsTimer.scheduleAtFixedRate(
                     new TimerTask() {
+                        private long lastFramesMissed = 0;
+                        private final Map<BlinkyDevice, Long> lastFramesDroppedPerDevice = new HashMap<>();
+
                         public void run() {
-                            drawCurrentFrame();
+                            final long framesMissed = frameScheduler.getFramesMissed();
+                            if (framesMissed > lastFramesMissed) {
+                                System.out.println("Missed " + (framesMissed - lastFramesMissed) + " LED frames at "
+                                        + framesPerSecond + " frames/sec (slowest frame took "
+                                        + frameScheduler.getMaxRenderNanos() / 1000000 + "ms)");
+                                lastFramesMissed = framesMissed;
+                            }
+
+                            // Dropped frames mean that device's serial port can't keep up with the frame rate
+                            final BlinkyDeviceLayout layout = deviceLayout;
+                            final Map<BlinkyDevice, Long> framesDroppedPerDevice = new HashMap<>();
+                            for (int i = 0; i < layout.getDeviceCount(); i++) {
+                                final BlinkyDevice device = layout.getDevice(i);
+                                final AsyncBlinkyTapeWriter writer = device.getWriter();
+                                final Long lastFramesDropped = lastFramesDroppedPerDevice.get(device);
+                                final long framesDropped = writer.getFramesDropped();
+                                if (framesDropped > (lastFramesDropped == null ? 0 : lastFramesDropped)) {
+                                    System.out.println("Blinky device on port " + device.getPortName() + " dropped "
+                                            + (framesDropped - (lastFramesDropped == null ? 0 : lastFramesDropped))
+                                            + " frames (" + writer.getFramesWritten() + " written and "
+                                            + writer.getFramesSkipped() + " unchanged in total), average write "
+                                            + writer.getAverageWriteNanos() / 1000 + "us, slowest write "
+                                            + writer.getMaxWriteNanos() / 1000 + "us, average frame age "
+                                            + writer.getAverageFrameAgeNanos() / 1000 + "us");
+                                }
+                                framesDroppedPerDevice.put(device, framesDropped);
+                            }
+                            lastFramesDroppedPerDevice.clear();
+                            lastFramesDroppedPerDevice.putAll(framesDroppedPerDevice);
                         }
-                    }, 0, LED_FRAME_RATE_DELAY_MILLIS
+                    }, FRAME_STATISTICS_DELAY_MILLIS, FRAME_STATISTICS_DELAY_MILLIS
             );
+        }
 
+        void close() {
+            deviceDiscoveryTimer.cancel();
+            frameStatisticsTimer.cancel();
+            frameScheduler.stop();
+
+            final BlinkyDeviceLayout layout = deviceLayout;
+            deviceLayout = BlinkyDeviceLayout.EMPTY;
+            for (int i = 0; i < layout.getDeviceCount(); i++) {
+                layout.getDevice(i).close();
+            }
         }
 
     }
@@ -0,0 +1,24 @@
+/**
+ * The layout of a Blinky recording: the metric packets a client received and the frames it rendered, with their
+ * timings, so that a session can be replayed later without a server or any hardware.
+ * <p>
+ * A recording starts with the {@link #MAGIC} bytes, followed by records of:
+ * <ul>
+ * <li>the record type (1 byte)</li>
+ * <li>microseconds since the previous record (unsigned varint)</li>
+ * <li>for frames only, the index of the device the frame was rendered on (unsigned varint)</li>
+ * <li>the payload length (unsigned varint), then the payload: a packet's UTF-8 text, a binary packet's frame payload
+ * (see {@link BinaryMetricsDecoder}), or a frame's wire bytes</li>
+ * </ul>
+ */
+public final class BlinkyRecording {
+
+    public static final byte[] MAGIC = new byte[] {'B', 'L', 'N', 'K', 'R', 'E', 'C', '1'};
+
+    public static final int PACKET = 1;
+    public static final int FRAME = 2;
+    public static final int BINARY_PACKET = 3;
+
+    private BlinkyRecording() {
+    }
+}
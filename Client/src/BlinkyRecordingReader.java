@@ -0,0 +1,105 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a {@link BlinkyRecording} one record at a time into a reused buffer.
+ */
+public class BlinkyRecordingReader implements AutoCloseable {
+
+    private final InputStream inputStream;
+
+    private int type;
+    private long timestampNanos = 0;
+    private int deviceIndex;
+    private byte[] data = new byte[8192];
+    private int length;
+
+    public BlinkyRecordingReader(String fileName) throws IOException {
+        this.inputStream = new BufferedInputStream(new FileInputStream(fileName));
+        for (byte expected : BlinkyRecording.MAGIC) {
+            if (inputStream.read() != expected) {
+                inputStream.close();
+                throw new IOException(fileName + " is not a Blinky recording");
+            }
+        }
+    }
+
+    /**
+     * Moves on to the next record.
+     *
+     * @return false at the end of the recording
+     */
+    public boolean next() throws IOException {
+        type = inputStream.read();
+        if (type < 0) {
+            return false;
+        }
+        timestampNanos += readVarint() * 1000;
+        deviceIndex = type == BlinkyRecording.FRAME ? (int) readVarint() : 0;
+        length = (int) readVarint();
+        if (length > data.length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            final int count = inputStream.read(data, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Recording ends part way through a record");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    /**
+     * @return {@link BlinkyRecording#PACKET}, {@link BlinkyRecording#BINARY_PACKET} or {@link BlinkyRecording#FRAME}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return when the record was written, relative to the start of the recording
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public int getDeviceIndex() {
+        return deviceIndex;
+    }
+
+    /**
+     * @return the record's payload, only the first {@link #getLength()} bytes are valid and only until the next record
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException("Recording ends part way through a record");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in recording");
+    }
+}
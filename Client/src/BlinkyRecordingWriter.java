@@ -0,0 +1,101 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Appends packets and frames to a {@link BlinkyRecording}.  Packets and frames arrive on different threads, so writes
+ * are synchronized.
+ */
+public class BlinkyRecordingWriter implements AutoCloseable {
+
+    private final OutputStream outputStream;
+    private final long startNanos;
+    private long lastRecordMicros = 0;
+
+    private byte[] encoded = new byte[8192];
+
+    public BlinkyRecordingWriter(String fileName) throws IOException {
+        this.outputStream = new BufferedOutputStream(new FileOutputStream(fileName));
+        this.outputStream.write(BlinkyRecording.MAGIC);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a metrics packet, given as the characters of its line.
+     */
+    public synchronized void writePacket(char[] chars, int length) throws IOException {
+        final int encodedLength = encodeUtf8(chars, length);
+        writeHeader(BlinkyRecording.PACKET);
+        writeVarint(encodedLength);
+        outputStream.write(encoded, 0, encodedLength);
+    }
+
+    /**
+     * Records a frame from the binary metrics stream, given as its payload.
+     */
+    public synchronized void writeBinaryPacket(byte[] data, int length) throws IOException {
+        writeHeader(BlinkyRecording.BINARY_PACKET);
+        writeVarint(length);
+        outputStream.write(data, 0, length);
+    }
+
+    public synchronized void writeFrame(int deviceIndex, PackedBlinkyFrame frame) throws IOException {
+        final byte[] data = frame.getData();
+        writeHeader(BlinkyRecording.FRAME);
+        writeVarint(deviceIndex);
+        writeVarint(data.length);
+        outputStream.write(data);
+    }
+
+    public synchronized void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        outputStream.close();
+    }
+
+    private void writeHeader(int type) throws IOException {
+        final long recordMicros = (System.nanoTime() - startNanos) / 1000;
+        outputStream.write(type);
+        writeVarint(Math.max(0, recordMicros - lastRecordMicros));
+        lastRecordMicros = Math.max(lastRecordMicros, recordMicros);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private int encodeUtf8(char[] chars, int length) {
+        if (encoded.length < length * 3) {
+            encoded = new byte[length * 3];
+        }
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = chars[i];
+            if (c < 0x80) {
+                encoded[position++] = (byte) c;
+            } else if (c < 0x800) {
+                encoded[position++] = (byte) (0xC0 | (c >> 6));
+                encoded[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                final int codePoint = Character.toCodePoint(c, chars[++i]);
+                encoded[position++] = (byte) (0xF0 | (codePoint >> 18));
+                encoded[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                encoded[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                encoded[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                encoded[position++] = (byte) (0xE0 | (c >> 12));
+                encoded[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+}
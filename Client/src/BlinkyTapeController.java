@@ -13,6 +13,11 @@ public interface BlinkyTapeController {
 
 	void renderFrame(BlinkyFrame frame);
 
+	/**
+	 * @return false if the frame was skipped because it wouldn't have changed anything on the device
+	 */
+	boolean renderFrame(PackedBlinkyFrame frame);
+
 	void renderFrames(BlinkyFrame[] frames);
 
 	void renderFrames(BlinkyFrame[] frames, long delayInMilliseconds);
@@ -0,0 +1,41 @@
+
+import java.awt.*;
+
+/**
+ * A precomputed lookup table of colors between two end points, so that turning a value into an LED color is an array
+ * read instead of constructing a Color.
+ */
+public class ColorGradient {
+
+    private static final int LEVELS = 256;
+
+    private final int[] rgbs = new int[LEVELS];
+
+    public ColorGradient(Color from, Color to) {
+        for (int level = 0; level < LEVELS; level++) {
+            final double fraction = level / (double) (LEVELS - 1);
+            final int red = interpolate(from.getRed(), to.getRed(), fraction);
+            final int green = interpolate(from.getGreen(), to.getGreen(), fraction);
+            final int blue = interpolate(from.getBlue(), to.getBlue(), fraction);
+            rgbs[level] = (red << 16) | (green << 8) | blue;
+        }
+    }
+
+    /**
+     * @param value between 0.0 (the "from" color) and 1.0 (the "to" color), anything outside of that is clamped
+     * @return the color packed as 0xRRGGBB
+     */
+    public int getRgb(double value) {
+        if (!(value > 0.0)) {
+            return rgbs[0];                     // Also catches NaN
+        }
+        if (value >= 1.0) {
+            return rgbs[LEVELS - 1];
+        }
+        return rgbs[(int) (value * (LEVELS - 1) + 0.5)];
+    }
+
+    private static int interpolate(int from, int to, double fraction) {
+        return (int) Math.round(from + (to - from) * fraction);
+    }
+}
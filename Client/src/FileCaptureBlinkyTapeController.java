@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+/**
+ * A BlinkyTapeController that captures every frame, with its timing, to a {@link BlinkyRecording} file instead of a
+ * tape, so the rendered output can be examined or compared afterwards.
+ */
+public class FileCaptureBlinkyTapeController extends BaseBlinkyTapeController {
+
+    private final BlinkyRecordingWriter recordingWriter;
+
+    public FileCaptureBlinkyTapeController(String fileName) {
+        try {
+            this.recordingWriter = new BlinkyRecordingWriter(fileName);
+        } catch (IOException e) {
+            throw new BlinkyTapeControllerException("Couldn't create capture file: ", e);
+        }
+    }
+
+    @Override
+    public boolean renderFrame(PackedBlinkyFrame frame) {
+        try {
+            recordingWriter.writeFrame(0, frame);
+            return true;
+        } catch (IOException e) {
+            throw new BlinkyTapeControllerException("Couldn't write to capture file: ", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            recordingWriter.close();
+        } catch (IOException e) {
+            throw new BlinkyTapeControllerException("Couldn't close capture file: ", e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.Arrays;
+
+/**
+ * Assigns every host a stable slot (and therefore a stable LED) for as long as it keeps reporting in, and holds the
+ * latest metrics for each slot in primitive arrays so that packets can be applied without allocating.
+ * <p>
+ * Slots are handed out lowest first, and a host only gives up its slot once a packet arrives without it (i.e. the
+ * server has pruned it).  Host names are looked up straight out of the packet's characters, so only a brand new host
+ * costs a String.
+ * <p>
+ * Not thread safe, a table belongs to the thread decoding packets.
+ */
+public class HostSlotTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private String[] hostNames = new String[INITIAL_CAPACITY];
+    private int[] hostNameHashes = new int[INITIAL_CAPACITY];
+    private double[] cpuUsages = new double[INITIAL_CAPACITY];
+    private int[] lastSeenPackets = new int[INITIAL_CAPACITY];
+
+    // Open addressing index from host name hash to slot, kept at most half full
+    private int[] index = newIndex(INITIAL_CAPACITY * 2);
+
+    private int slotCount = 0;                  // One past the highest slot in use
+    private int activeHostCount = 0;
+    private int currentPacket = 0;
+
+    /**
+     * Starts applying a new packet, any host not updated before {@link #endPacket()} is pruned.
+     */
+    public void beginPacket() {
+        currentPacket++;
+    }
+
+    /**
+     * Records the metrics for the host whose name is chars[offset, offset + length), assigning it a slot if it is new.
+     *
+     * @return the host's slot
+     */
+    public int update(char[] chars, int offset, int length, double cpuUsage) {
+        int slot = findSlot(chars, offset, length);
+        if (slot == EMPTY) {
+            slot = addHost(new String(chars, offset, length));
+        }
+        cpuUsages[slot] = cpuUsage;
+        lastSeenPackets[slot] = currentPacket;
+        return slot;
+    }
+
+    /**
+     * Records the metrics for the host already holding the slot, e.g. one whose slot the caller has remembered.
+     */
+    public void update(int slot, double cpuUsage) {
+        cpuUsages[slot] = cpuUsage;
+        lastSeenPackets[slot] = currentPacket;
+    }
+
+    /**
+     * Prunes every host that wasn't part of the packet just applied, freeing their slots for new hosts.
+     *
+     * @return true if any host was pruned
+     */
+    public boolean endPacket() {
+        boolean pruned = false;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (hostNames[slot] != null && lastSeenPackets[slot] != currentPacket) {
+                hostNames[slot] = null;
+                cpuUsages[slot] = 0.0;
+                activeHostCount--;
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            while (slotCount > 0 && hostNames[slotCount - 1] == null) {
+                slotCount--;
+            }
+            rebuildIndex(index.length);
+        }
+        return pruned;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getActiveHostCount() {
+        return activeHostCount;
+    }
+
+    public boolean isActive(int slot) {
+        return hostNames[slot] != null;
+    }
+
+    public String getHostName(int slot) {
+        return hostNames[slot];
+    }
+
+    public double getCpuUsage(int slot) {
+        return cpuUsages[slot];
+    }
+
+    private int findSlot(char[] chars, int offset, int length) {
+        final int hash = hash(chars, offset, length);
+        final int mask = index.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final int slot = index[i];
+            if (slot == EMPTY) {
+                return EMPTY;
+            }
+            if (hostNameHashes[slot] == hash && matches(hostNames[slot], chars, offset, length)) {
+                return slot;
+            }
+        }
+    }
+
+    private int addHost(String hostName) {
+        int slot = 0;
+        while (slot < slotCount && hostNames[slot] != null) {
+            slot++;
+        }
+        if (slot >= hostNames.length) {
+            grow();
+        }
+        hostNames[slot] = hostName;
+        hostNameHashes[slot] = hash(hostName);
+        slotCount = Math.max(slotCount, slot + 1);
+        activeHostCount++;
+
+        if (activeHostCount * 2 > index.length) {
+            rebuildIndex(index.length * 2);
+        } else {
+            insertIntoIndex(slot);
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final int capacity = hostNames.length * 2;
+        hostNames = Arrays.copyOf(hostNames, capacity);
+        hostNameHashes = Arrays.copyOf(hostNameHashes, capacity);
+        cpuUsages = Arrays.copyOf(cpuUsages, capacity);
+        lastSeenPackets = Arrays.copyOf(lastSeenPackets, capacity);
+    }
+
+    private void rebuildIndex(int size) {
+        if (size == index.length) {
+            Arrays.fill(index, EMPTY);
+        } else {
+            index = newIndex(size);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (hostNames[slot] != null) {
+                insertIntoIndex(slot);
+            }
+        }
+    }
+
+    private void insertIntoIndex(int slot) {
+        final int mask = index.length - 1;
+        int i = hostNameHashes[slot] & mask;
+        while (index[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot;
+    }
+
+    private static int[] newIndex(int size) {
+        final int[] index = new int[size];
+        Arrays.fill(index, EMPTY);
+        return index;
+    }
+
+    private static boolean matches(String hostName, char[] chars, int offset, int length) {
+        if (hostName.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (hostName.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        return spread(hash);
+    }
+
+    private static int hash(String hostName) {
+        return spread(hostName.hashCode());
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
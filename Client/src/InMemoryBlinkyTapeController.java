@@ -0,0 +1,41 @@
+/**
+ * A BlinkyTapeController that just remembers what it was asked to render, for running the frame pipeline without any
+ * hardware.
+ */
+public class InMemoryBlinkyTapeController extends BaseBlinkyTapeController {
+
+    private final PackedBlinkyFrame lastFrame;
+    private volatile long framesRendered = 0;
+
+    public InMemoryBlinkyTapeController() {
+        this(BlinkyFrame.DEFAULT_LIGHT_COUNT);
+    }
+
+    public InMemoryBlinkyTapeController(int lightCount) {
+        this.lastFrame = new PackedBlinkyFrame(lightCount);
+    }
+
+    @Override
+    public synchronized boolean renderFrame(PackedBlinkyFrame frame) {
+        lastFrame.copyFrom(frame);
+        framesRendered++;
+        return true;
+    }
+
+    /**
+     * @return a copy of the last frame rendered
+     */
+    public synchronized PackedBlinkyFrame getLastFrame() {
+        final PackedBlinkyFrame frame = new PackedBlinkyFrame(lastFrame.getLightCount());
+        frame.copyFrom(lastFrame);
+        return frame;
+    }
+
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+
+    @Override
+    public void close() {
+    }
+}
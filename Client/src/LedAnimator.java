@@ -0,0 +1,134 @@
+
+import java.awt.*;
+
+/**
+ * Animates each host slot's LED smoothly from the value of its previous sample to the value of its latest one, so that
+ * at frame rates well above the server's update rate the LEDs fade rather than snap.  A transition lasts as long as
+ * the measured gap between updates, so each fade finishes just as the next sample is due.
+ * <p>
+ * Updates arrive on the packet thread and frames are drawn on the frame scheduler's thread, so access is synchronized.
+ */
+public class LedAnimator {
+
+    private static final long DEFAULT_TRANSITION_NANOS = 500000000L;    // The server sends metrics every 500ms
+    private static final long MAX_TRANSITION_NANOS = 2000000000L;       // Past this we treat the hosts as gone anyway
+
+    private static final ColorGradient CPU_USAGE_GRADIENT = new ColorGradient(Color.GREEN, Color.RED);
+
+    private double[] fromValues = new double[16];
+    private double[] toValues = new double[16];
+    private boolean[] active = new boolean[16];
+    private int slotCount = 0;
+    private int activeHostCount = 0;
+
+    private long transitionStartNanos = 0;
+    private long transitionNanos = DEFAULT_TRANSITION_NANOS;
+    private long lastUpdateNanos = 0;
+
+    // How many slots share each LED, which only ever grows while the hosts and LEDs stay, so no host changes LED
+    private int groupSize = 1;
+    private int groupLedCount = 0;
+
+    /**
+     * Starts a transition for every slot from wherever it is right now to the table's latest value.
+     */
+    public synchronized void update(HostSlotTable hostSlotTable, long currentNanos) {
+        final int newSlotCount = hostSlotTable.getSlotCount();
+        if (newSlotCount > toValues.length) {
+            grow(newSlotCount * 2);
+        }
+        for (int slot = 0; slot < Math.max(slotCount, newSlotCount); slot++) {
+            final boolean wasActive = active[slot];
+            final double currentValue = valueAt(slot, currentNanos);     // Before the transition's duration changes below
+            final boolean nowActive = slot < newSlotCount && hostSlotTable.isActive(slot);
+
+            active[slot] = nowActive;
+            toValues[slot] = nowActive ? hostSlotTable.getCpuUsage(slot) : 0.0;
+
+            // A newly arrived host starts at its first sample rather than fading in from whatever the slot last held
+            fromValues[slot] = wasActive && nowActive ? currentValue : toValues[slot];
+        }
+        slotCount = newSlotCount;
+        activeHostCount = hostSlotTable.getActiveHostCount();
+
+        if (lastUpdateNanos != 0) {
+            // Smooth the measured update interval so one late packet doesn't stretch every fade
+            final long intervalNanos = Math.min(currentNanos - lastUpdateNanos, MAX_TRANSITION_NANOS);
+            transitionNanos = Math.max(1, (transitionNanos * 7 + intervalNanos) / 8);
+        }
+        lastUpdateNanos = currentNanos;
+        transitionStartNanos = currentNanos;
+    }
+
+    /**
+     * Forgets every host, e.g. when the metrics have gone stale.
+     */
+    public synchronized void clear() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            active[slot] = false;
+        }
+        slotCount = 0;
+        activeHostCount = 0;
+        lastUpdateNanos = 0;
+        groupSize = 1;
+    }
+
+    public synchronized int getActiveHostCount() {
+        return activeHostCount;
+    }
+
+    /**
+     * @return when the fade started by the latest update finishes, after which the LEDs hold still until the next one
+     */
+    public synchronized long getTransitionEndNanos() {
+        return transitionStartNanos + transitionNanos;
+    }
+
+    /**
+     * Works out the color of each LED in a combined LED space of ledCount LEDs, packed as 0xRRGGBB, with unused LEDs
+     * left black.  Each slot gets its own LED when there are enough of them, otherwise consecutive slots are grouped
+     * onto each LED, which shows the busiest host in its group.  Groups only get bigger as hosts arrive, not smaller as
+     * they go (until every host has gone or the number of LEDs changes), so hosts stay on their LEDs.
+     */
+    public synchronized void render(int[] ledRgbs, int ledCount, long currentNanos) {
+        if (ledCount != groupLedCount) {
+            groupLedCount = ledCount;
+            groupSize = 1;
+        }
+        if (ledCount > 0 && slotCount > ledCount * groupSize) {
+            groupSize = (slotCount + ledCount - 1) / ledCount;
+        }
+        for (int led = 0; led < ledCount; led++) {
+            final int firstSlot = led * groupSize;
+            final int lastSlot = Math.min(firstSlot + groupSize, slotCount);
+
+            boolean anyActive = false;
+            double maxValue = 0.0;
+            for (int slot = firstSlot; slot < lastSlot; slot++) {
+                if (active[slot]) {
+                    final double value = valueAt(slot, currentNanos);
+                    maxValue = anyActive ? Math.max(maxValue, value) : value;
+                    anyActive = true;
+                }
+            }
+            ledRgbs[led] = anyActive ? CPU_USAGE_GRADIENT.getRgb(maxValue) : 0;
+        }
+    }
+
+    private double valueAt(int slot, long currentNanos) {
+        final double progress = Math.min(1.0, Math.max(0.0, (currentNanos - transitionStartNanos) / (double) transitionNanos));
+        return fromValues[slot] + (toValues[slot] - fromValues[slot]) * progress;
+    }
+
+    private void grow(int capacity) {
+        final double[] newFromValues = new double[capacity];
+        final double[] newToValues = new double[capacity];
+        final boolean[] newActive = new boolean[capacity];
+        System.arraycopy(fromValues, 0, newFromValues, 0, fromValues.length);
+        System.arraycopy(toValues, 0, newToValues, 0, toValues.length);
+        System.arraycopy(active, 0, newActive, 0, active.length);
+        fromValues = newFromValues;
+        toValues = newToValues;
+        active = newActive;
+    }
+}
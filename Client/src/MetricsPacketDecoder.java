@@ -0,0 +1,453 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the server's newline delimited JSON metric packets and applies them straight to a {@link HostSlotTable},
+ * reusing the same character buffers for every packet so that steady state decoding doesn't allocate.
+ * <p>
+ * Only understands as much JSON as the server sends: an object with a "hosts" array of flat host objects.  Anything
+ * else it can skip over, but malformed input fails with an IllegalArgumentException.
+ */
+public class MetricsPacketDecoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MAX_MANTISSA_DIGITS = 18;      // Digits beyond this can't change an LED color anyway
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final char[] readBuffer = new char[INITIAL_BUFFER_SIZE];
+    private int readPosition = 0;
+    private int readLimit = 0;
+
+    private char[] line = new char[INITIAL_BUFFER_SIZE];
+    private int lineLength = 0;
+
+    private char[] unescaped = new char[64];
+    private char[] escapedHostName = new char[64];          // An escaped host name, kept safe from later escaped strings
+
+    // Parser state for the packet currently being decoded
+    private int position;
+    private int stringStart;
+    private int stringLength;
+    private char[] stringChars;
+
+    /**
+     * Forgets anything read but not yet decoded, so that a new stream (e.g. after reconnecting) starts cleanly rather
+     * than being joined onto the end of the old one.
+     */
+    public void reset() {
+        readPosition = 0;
+        readLimit = 0;
+        lineLength = 0;
+    }
+
+    /**
+     * Reads the next packet (line) from the reader into the reusable line buffer.
+     *
+     * @return false once the stream has ended
+     */
+    public boolean readPacket(Reader reader) throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (readPosition >= readLimit) {
+                readLimit = reader.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    return lineLength > 0;
+                }
+            }
+            while (readPosition < readLimit) {
+                final char c = readBuffer[readPosition++];
+                if (c == '\n') {
+                    if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                        lineLength--;
+                    }
+                    return true;
+                }
+                if (lineLength == line.length) {
+                    final char[] biggerLine = new char[line.length * 2];
+                    System.arraycopy(line, 0, biggerLine, 0, lineLength);
+                    line = biggerLine;
+                }
+                line[lineLength++] = c;
+            }
+        }
+    }
+
+    /**
+     * Loads a packet that has already been read, mostly useful when replaying or benchmarking packets.
+     */
+    public void setPacket(CharSequence packet) {
+        if (packet.length() > line.length) {
+            line = new char[Math.max(packet.length(), line.length * 2)];
+        }
+        for (int i = 0; i < packet.length(); i++) {
+            line[i] = packet.charAt(i);
+        }
+        lineLength = packet.length();
+    }
+
+    /**
+     * Loads a packet from its UTF-8 bytes, e.g. when replaying a recording.
+     */
+    public void setPacket(byte[] utf8, int length) {
+        if (length > line.length) {
+            line = new char[Math.max(length, line.length * 2)];
+        }
+        int position = 0;
+        for (int i = 0; i < length; ) {
+            final int b = utf8[i++] & 0xFF;
+            if (b < 0x80) {
+                line[position++] = (char) b;
+            } else if (b < 0xE0 && i < length) {
+                line[position++] = (char) (((b & 0x1F) << 6) | (utf8[i++] & 0x3F));
+            } else if (b < 0xF0 && i + 1 < length) {
+                line[position++] = (char) (((b & 0x0F) << 12) | ((utf8[i] & 0x3F) << 6) | (utf8[i + 1] & 0x3F));
+                i += 2;
+            } else if (i + 2 < length) {
+                final int codePoint = ((b & 0x07) << 18) | ((utf8[i] & 0x3F) << 12) | ((utf8[i + 1] & 0x3F) << 6) | (utf8[i + 2] & 0x3F);
+                line[position++] = Character.highSurrogate(codePoint);
+                line[position++] = Character.lowSurrogate(codePoint);
+                i += 3;
+            } else {
+                line[position++] = '\uFFFD';
+                i = length;
+            }
+        }
+        lineLength = position;
+    }
+
+    /**
+     * @return the buffer holding the last packet read, only the first {@link #getPacketLength()} chars are valid
+     */
+    public char[] getPacketChars() {
+        return line;
+    }
+
+    public int getPacketLength() {
+        return lineLength;
+    }
+
+    /**
+     * @return true if the last packet read was blank (e.g. a keep alive), and so there's nothing to decode
+     */
+    public boolean isPacketEmpty() {
+        for (int i = 0; i < lineLength; i++) {
+            if (!Character.isWhitespace(line[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the last packet read to the table, pruning any host the packet no longer contains.
+     */
+    public void decode(HostSlotTable table) {
+        position = 0;
+        table.beginPacket();
+
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                parseString();
+                expect(':');
+                if (stringEquals("hosts")) {
+                    parseHosts(table);
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+
+        table.endPacket();
+    }
+
+    private void parseHosts(HostSlotTable table) {
+        expect('[');
+        if (consumeIf(']')) {
+            return;
+        }
+        do {
+            parseHost(table);
+        } while (consumeIf(','));
+        expect(']');
+    }
+
+    private void parseHost(HostSlotTable table) {
+        char[] hostNameChars = null;
+        int hostNameStart = 0;
+        int hostNameLength = 0;
+        double cpuUsage = 0.0;
+
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                parseString();
+                expect(':');
+                if (stringEquals("hostName")) {
+                    parseString();
+                    if (stringChars == unescaped) {
+                        // The scratch buffer is reused by the next escaped string, which may come before we're done
+                        if (stringLength > escapedHostName.length) {
+                            escapedHostName = new char[Math.max(stringLength, escapedHostName.length * 2)];
+                        }
+                        System.arraycopy(unescaped, 0, escapedHostName, 0, stringLength);
+                        hostNameChars = escapedHostName;
+                    } else {
+                        hostNameChars = stringChars;
+                    }
+                    hostNameStart = stringStart;
+                    hostNameLength = stringLength;
+                } else if (stringEquals("cpuUsage")) {
+                    cpuUsage = parseNumber();
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+
+        if (hostNameChars == null) {
+            throw malformed("host without a hostName");
+        }
+        table.update(hostNameChars, hostNameStart, hostNameLength, cpuUsage);
+    }
+
+    /**
+     * Parses a string, leaving its contents in stringChars[stringStart, stringStart + stringLength).  Strings without
+     * escapes are referenced in place, escaped strings are unescaped into a scratch buffer (so only valid until the
+     * next escaped string).
+     */
+    private void parseString() {
+        expect('"');
+        final int start = position;
+        while (position < lineLength) {
+            final char c = line[position];
+            if (c == '"') {
+                stringChars = line;
+                stringStart = start;
+                stringLength = position - start;
+                position++;
+                return;
+            }
+            if (c == '\\') {
+                position = start;
+                parseEscapedString();
+                return;
+            }
+            position++;
+        }
+        throw malformed("unterminated string");
+    }
+
+    private void parseEscapedString() {
+        int length = 0;
+        while (position < lineLength) {
+            char c = line[position++];
+            if (c == '"') {
+                stringChars = unescaped;
+                stringStart = 0;
+                stringLength = length;
+                return;
+            }
+            if (c == '\\') {
+                if (position >= lineLength) {
+                    break;
+                }
+                c = line[position++];
+                switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        if (position + 4 > lineLength) {
+                            throw malformed("truncated unicode escape");
+                        }
+                        c = (char) parseHex(position, 4);
+                        position += 4;
+                        break;
+                    default:
+                        // Quotes, slashes and backslashes stand for themselves
+                        break;
+                }
+            }
+            if (length == unescaped.length) {
+                final char[] biggerUnescaped = new char[unescaped.length * 2];
+                System.arraycopy(unescaped, 0, biggerUnescaped, 0, length);
+                unescaped = biggerUnescaped;
+            }
+            unescaped[length++] = c;
+        }
+        throw malformed("unterminated string");
+    }
+
+    private int parseHex(int start, int digits) {
+        int value = 0;
+        for (int i = start; i < start + digits; i++) {
+            final int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                throw malformed("bad unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private double parseNumber() {
+        skipWhitespace();
+        final boolean negative = consumeIf('-');
+
+        long mantissa = 0;
+        int mantissaDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+
+        while (position < lineLength && isDigit(line[position])) {
+            if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (line[position] - '0');
+                if (mantissa != 0) {
+                    mantissaDigits++;
+                }
+            } else {
+                exponent++;
+            }
+            anyDigits = true;
+            position++;
+        }
+        if (position < lineLength && line[position] == '.') {
+            position++;
+            while (position < lineLength && isDigit(line[position])) {
+                if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (line[position] - '0');
+                    if (mantissa != 0) {
+                        mantissaDigits++;
+                    }
+                    exponent--;
+                }
+                anyDigits = true;
+                position++;
+            }
+        }
+        if (!anyDigits) {
+            throw malformed("expected a number");
+        }
+        if (position < lineLength && (line[position] == 'e' || line[position] == 'E')) {
+            position++;
+            final boolean negativeExponent = consumeIf('-');
+            if (!negativeExponent) {
+                consumeIf('+');
+            }
+            int explicitExponent = 0;
+            while (position < lineLength && isDigit(line[position])) {
+                explicitExponent = Math.min(explicitExponent * 10 + (line[position] - '0'), 1000);
+                position++;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        double value = mantissa;
+        if (exponent != 0 && mantissa != 0) {
+            if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value /= POWERS_OF_TEN[-exponent];
+            } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+                value *= POWERS_OF_TEN[exponent];
+            } else {
+                value *= Math.pow(10, exponent);
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        if (position >= lineLength) {
+            throw malformed("expected a value");
+        }
+        final char c = line[position];
+        if (c == '"') {
+            parseString();
+        } else if (c == '{' || c == '[') {
+            skipNested();
+        } else if (c == '-' || isDigit(c)) {
+            parseNumber();
+        } else {
+            // true, false or null
+            while (position < lineLength && Character.isLetter(line[position])) {
+                position++;
+            }
+        }
+    }
+
+    private void skipNested() {
+        int depth = 0;
+        while (position < lineLength) {
+            final char c = line[position];
+            if (c == '"') {
+                parseString();
+                continue;
+            }
+            position++;
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw malformed("unterminated object or array");
+    }
+
+    private boolean stringEquals(String value) {
+        if (stringLength != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < stringLength; i++) {
+            if (stringChars[stringStart + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char expected) {
+        if (!consumeIf(expected)) {
+            throw malformed("expected '" + expected + "'");
+        }
+    }
+
+    private boolean consumeIf(char expected) {
+        skipWhitespace();
+        if (position < lineLength && line[position] == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (position < lineLength && Character.isWhitespace(line[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private IllegalArgumentException malformed(String problem) {
+        return new IllegalArgumentException("Malformed metrics packet, " + problem + " at position " + position);
+    }
+}
@@ -0,0 +1,109 @@
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * A BlinkyTape frame stored directly in the bytes the tape expects over the wire: 3 bytes (R, G, B) per light, each
+ * limited to 254, followed by the 0x00 0x00 0xFF terminator.  Frames are meant to be allocated once and redrawn, so
+ * rendering one never has to allocate or convert anything.
+ *
+ * @see SerialBlinkyTapeController
+ */
+public class PackedBlinkyFrame {
+
+    public static final int MAX_COLOR_VALUE = 254;      // 255 is reserved for the end of frame marker
+
+    private final int lightCount;
+    private final byte[] data;
+
+    public PackedBlinkyFrame() {
+        this(BlinkyFrame.DEFAULT_LIGHT_COUNT);
+    }
+
+    public PackedBlinkyFrame(int lightCount) {
+        this.lightCount = lightCount;
+        this.data = new byte[(lightCount + 1) * 3];
+
+        // The sketch only reads three bytes at a time so the terminator is 3 bytes with the final 0xFF
+        final int offset = lightCount * 3;
+        data[offset] = 0x0;
+        data[offset + 1] = 0x0;
+        data[offset + 2] = (byte) 0xFF;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    /**
+     * Sets all lights to black.
+     */
+    public void clear() {
+        Arrays.fill(data, 0, lightCount * 3, (byte) 0);
+    }
+
+    public void setLight(int light, int red, int green, int blue) {
+        final int offset = light * 3;
+        data[offset] = clamp(red);
+        data[offset + 1] = clamp(green);
+        data[offset + 2] = clamp(blue);
+    }
+
+    /**
+     * @param rgb the color packed as 0xRRGGBB
+     */
+    public void setLight(int light, int rgb) {
+        setLight(light, (rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+    }
+
+    public void setLight(int light, Color color) {
+        if (color == null) {
+            setLight(light, 0, 0, 0);
+        } else {
+            setLight(light, color.getRed(), color.getGreen(), color.getBlue());
+        }
+    }
+
+    /**
+     * @return the (already clamped) color of the light packed as 0xRRGGBB
+     */
+    public int getRgbOfLight(int light) {
+        final int offset = light * 3;
+        return ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+    }
+
+    public void copyFrom(PackedBlinkyFrame frame) {
+        checkSameLightCount(frame);
+        System.arraycopy(frame.data, 0, data, 0, data.length);
+    }
+
+    public void copyFrom(BlinkyFrame frame) {
+        if (frame.getLightCount() != lightCount) {
+            throw new IllegalArgumentException("Frame has " + frame.getLightCount() + " lights, expected " + lightCount);
+        }
+        for (int light = 0; light < lightCount; light++) {
+            setLight(light, frame.getColorOfLight(light));
+        }
+    }
+
+    public boolean contentEquals(PackedBlinkyFrame frame) {
+        return frame != null && Arrays.equals(data, frame.data);
+    }
+
+    /**
+     * @return the frame in the tape's wire format, terminator included.  This is the frame's own buffer, not a copy.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    private void checkSameLightCount(PackedBlinkyFrame frame) {
+        if (frame.lightCount != lightCount) {
+            throw new IllegalArgumentException("Frame has " + frame.lightCount + " lights, expected " + lightCount);
+        }
+    }
+
+    private static byte clamp(int value) {
+        return (byte) Math.max(0, Math.min(value, MAX_COLOR_VALUE));
+    }
+}
@@ -15,8 +15,13 @@ public class SerialBlinkyTapeController extends BaseBlinkyTapeController {
 
 	private static final Log LOG = LogFactory.getLog(SerialBlinkyTapeController.class);
 
+	private static final long UNCHANGED_FRAME_RESEND_MILLIS = 1000;
+
 	private SerialPort serialPort;
 
+	private PackedBlinkyFrame lastWrittenFrame = null;
+	private long lastWrittenMillis = 0;
+
 	public SerialBlinkyTapeController(String portName) {
 		super();
 		this.serialPort = new SerialPort(portName);
@@ -30,6 +35,14 @@ public class SerialBlinkyTapeController extends BaseBlinkyTapeController {
 		}
 	}
 
+	/**
+	 * Uses a port that's already open and configured, e.g. a fake one for benchmarking.
+	 */
+	SerialBlinkyTapeController(SerialPort serialPort) {
+		super();
+		this.serialPort = serialPort;
+	}
+
 	@Override
 	public void close() {
 		try {
@@ -40,31 +53,26 @@ public class SerialBlinkyTapeController extends BaseBlinkyTapeController {
 	}
 
 	@Override
-	public void renderFrame(BlinkyFrame frame) {
-		// Creates an array big enough to hold each LED color and the
-		// terminator.
-		byte[] data = new byte[(frame.getLightCount() + 1) * 3];
-		int offset;
-		for (int led = 0; led < frame.getLightCount(); led++) {
-			// 3 bytes, RGB, limited to a maximum of 254 as 255 is special.
-			offset = led * 3;
-			data[offset] = (byte) Math.min(frame.getColorOfLight(led).getRed(), 254);
-			data[offset + 1] = (byte) Math.min(frame.getColorOfLight(led).getGreen(), 254);
-			data[offset + 2] = (byte) Math.min(frame.getColorOfLight(led).getBlue(), 254);
+	public boolean renderFrame(PackedBlinkyFrame frame) {
+		// Nothing on the tape would change, so don't spend serial bandwidth on it (but still write every so often
+		// so that we notice if the device goes away)
+		final long currentMillis = System.currentTimeMillis();
+		if (frame.contentEquals(lastWrittenFrame) && currentMillis - lastWrittenMillis < UNCHANGED_FRAME_RESEND_MILLIS) {
+			return false;
 		}
 
-		// The sketch only reads three bytes at a time so send 3 with the final
-		// 0xFF
-		offset = frame.getLightCount() * 3;
-		data[offset] = 0x0;
-		data[offset + 1] = 0x0;
-		data[offset + 2] = (byte) 0xFF;
-
 		try {
-			this.serialPort.writeBytes(data);
+			this.serialPort.writeBytes(frame.getData());
 		} catch (SerialPortException e) {
 			throw new BlinkyTapeControllerException("Couldn't write to serial port: ", e);
 		}
+
+		if (lastWrittenFrame == null || lastWrittenFrame.getLightCount() != frame.getLightCount()) {
+			lastWrittenFrame = new PackedBlinkyFrame(frame.getLightCount());
+		}
+		lastWrittenFrame.copyFrom(frame);
+		lastWrittenMillis = currentMillis;
+		return true;
 	}
 
 }
\ No newline at end of file
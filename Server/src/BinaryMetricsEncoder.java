@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes the metrics stream for one client connection in the compact binary format, which clients ask for instead
+ * of the JSON lines with an Accept header of {@link #CONTENT_TYPE} (or ?format=binary).
+ * <p>
+ * The stream is a sequence of frames, each an unsigned varint payload length followed by the payload:
+ * <ul>
+ * <li>the frame type (1 byte): {@link #SNAPSHOT} for the first frame on a connection, {@link #DELTA} after that</li>
+ * <li>the number of slots removed (varint), then each removed slot (varint)</li>
+ * <li>the number of hosts added (varint), then for each one its slot (varint), the length of its name (varint), its
+ * UTF-8 name and its CPU usage (1 byte)</li>
+ * <li>the number of values changed (varint), then for each one its slot (varint) and CPU usage (1 byte)</li>
+ * </ul>
+ * Each host's name is only sent once, when it's given a slot, and after that a host only costs anything when its CPU
+ * usage changes.  CPU usage is quantized to 0-255, which is already finer than an LED can show.
+ * <p>
+ * Not thread safe, an encoder belongs to the thread streaming to its connection.
+ */
+public class BinaryMetricsEncoder {
+
+    public static final String CONTENT_TYPE = "application/x-blinky-metrics";
+
+    static final int SNAPSHOT = 1;      // The client should forget every slot it knew before applying this frame
+    static final int DELTA = 2;
+
+    private static final int MAX_VALUE = 255;
+    private static final int MAX_LENGTH_PREFIX = 5;     // Bytes in the varint of the largest possible payload length
+
+    private final Map<String, Integer> slotsByHostName = new HashMap<>();
+    private String[] hostNames = new String[16];
+    private int[] values = new int[16];                 // The value last sent for each slot
+    private int[] lastSeenTicks = new int[16];
+    private int slotCount = 0;                          // One past the highest slot in use
+    private int tick = 0;
+
+    // The tick being encoded
+    private String[] addedHostNames = new String[16];
+    private int[] addedValues = new int[16];
+    private int addedCount = 0;
+    private int[] changedSlots = new int[16];
+    private int changedCount = 0;
+
+    private byte[] buffer = new byte[1024];
+    private int frameStart;
+    private int frameEnd;
+
+    /**
+     * Starts a new tick, any host not added before {@link #endTick()} is removed from the client.
+     */
+    public void beginTick() {
+        tick++;
+        addedCount = 0;
+        changedCount = 0;
+    }
+
+    public void addHost(String hostName, double cpuUsage) {
+        final int value = quantize(cpuUsage);
+        final Integer slot = slotsByHostName.get(hostName);
+        if (slot == null) {
+            if (addedCount == addedHostNames.length) {
+                addedHostNames = Arrays.copyOf(addedHostNames, addedCount * 2);
+                addedValues = Arrays.copyOf(addedValues, addedCount * 2);
+            }
+            addedHostNames[addedCount] = hostName;
+            addedValues[addedCount++] = value;
+        } else if (lastSeenTicks[slot] != tick) {
+            lastSeenTicks[slot] = tick;
+            if (values[slot] != value) {
+                values[slot] = value;
+                if (changedCount == changedSlots.length) {
+                    changedSlots = Arrays.copyOf(changedSlots, changedCount * 2);
+                }
+                changedSlots[changedCount++] = slot;
+            }
+        }
+    }
+
+    /**
+     * Encodes the frame for the tick, which is then ready for {@link #writeTo(OutputStream)}.
+     */
+    public void endTick() {
+        frameEnd = MAX_LENGTH_PREFIX;
+        writeByte(tick == 1 ? SNAPSHOT : DELTA);
+
+        // Free the slots of hosts that have gone first, so the new hosts can reuse them straight away
+        int removedCount = 0;
+        int lowestFreeSlot = slotCount;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (hostNames[slot] != null && lastSeenTicks[slot] != tick) {
+                removedCount++;
+            }
+        }
+        writeVarint(removedCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (hostNames[slot] == null) {
+                lowestFreeSlot = Math.min(lowestFreeSlot, slot);
+            } else if (lastSeenTicks[slot] != tick) {
+                writeVarint(slot);
+                slotsByHostName.remove(hostNames[slot]);
+                hostNames[slot] = null;
+                lowestFreeSlot = Math.min(lowestFreeSlot, slot);
+            }
+        }
+
+        writeVarint(addedCount);
+        int slot = lowestFreeSlot;
+        for (int i = 0; i < addedCount; i++) {
+            while (slot < slotCount && hostNames[slot] != null) {
+                slot++;
+            }
+            if (slot >= hostNames.length) {
+                grow();
+            }
+            final String hostName = addedHostNames[i];
+            hostNames[slot] = hostName;
+            values[slot] = addedValues[i];
+            lastSeenTicks[slot] = tick;
+            slotsByHostName.put(hostName, slot);
+            slotCount = Math.max(slotCount, slot + 1);
+
+            final byte[] name = hostName.getBytes(StandardCharsets.UTF_8);
+            writeVarint(slot);
+            writeVarint(name.length);
+            writeBytes(name);
+            writeByte(addedValues[i]);
+            addedHostNames[i] = null;
+        }
+        while (slotCount > 0 && hostNames[slotCount - 1] == null) {
+            slotCount--;
+        }
+
+        writeVarint(changedCount);
+        for (int i = 0; i < changedCount; i++) {
+            writeVarint(changedSlots[i]);
+            writeByte(values[changedSlots[i]]);
+        }
+
+        // Now that the payload length is known, put it in front of the payload
+        final int payloadLength = frameEnd - MAX_LENGTH_PREFIX;
+        frameStart = MAX_LENGTH_PREFIX - varintLength(payloadLength);
+        int position = frameStart;
+        int value = payloadLength;
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position] = (byte) value;
+    }
+
+    /**
+     * @return the size of the last frame encoded, including its length prefix
+     */
+    public int getFrameLength() {
+        return frameEnd - frameStart;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, frameStart, frameEnd - frameStart);
+    }
+
+    private static int quantize(double cpuUsage) {
+        return (int) Math.round(Math.max(0.0, Math.min(cpuUsage, 1.0)) * MAX_VALUE);
+    }
+
+    private void grow() {
+        final int capacity = hostNames.length * 2;
+        hostNames = Arrays.copyOf(hostNames, capacity);
+        values = Arrays.copyOf(values, capacity);
+        lastSeenTicks = Arrays.copyOf(lastSeenTicks, capacity);
+    }
+
+    private void ensureCapacity(int extraBytes) {
+        if (frameEnd + extraBytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(frameEnd + extraBytes, buffer.length * 2));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[frameEnd++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, frameEnd, bytes.length);
+        frameEnd += bytes.length;
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(MAX_LENGTH_PREFIX);
+        while ((value & ~0x7F) != 0) {
+            buffer[frameEnd++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[frameEnd++] = (byte) value;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+}
@@ -19,6 +19,11 @@ import java.util.concurrent.*;
  * Example command line:
  * <p>
  * java -classpath out/production/Server BlinkyMetricsServer
+ * java -classpath out/production/Server BlinkyMetricsServer scrape-targets.txt 1000
+ * <p>
+ * Agents normally push their metrics to us, but agents that can't connect out (e.g. behind a firewall) can run with
+ * --listen instead, and be scraped.  The optional targets file lists them one host[:port][/path] per line, and they're
+ * scraped every scrapeIntervalMillis.
  * <p>
  * Created by squinn on 4/21/2017.
  */
@@ -27,16 +32,41 @@ public class BlinkyMetricsServer {
     private static final int DEFAULT_PORT = 7272;
     private static final long HOST_PRUNING_DELAY_MILLIS = 5000;         // How often will we prune inactive agents/hosts
     private static final long METRIC_UPDATE_DELAY_MILLIS = 500;         // How often will we send new metrics to the clients
+    private static final long DEFAULT_SCRAPE_INTERVAL_MILLIS = 1000;    // How often we scrape each agent (unless given on the command line)
+    private static final long MAX_SCRAPE_TIMEOUT_MILLIS = 2000;         // How long a scrape may take, at most (never more than the interval)
+    private static final int SCRAPE_THREAD_COUNT = 2;                   // Scrapes are non-blocking, so a couple of threads go a long way
+    private static final int MAX_CONCURRENT_SCRAPES = 512;              // Across all the scrape threads
 
     public static void main(String[] args) {
         try {
-            new BlinkyMetricsServer().start();
+            final BlinkyMetricsServer blinkyMetricsServer = new BlinkyMetricsServer();
+            if (args.length > 0) {
+                final List<ScrapeTarget> scrapeTargets = MetricsScraper.readTargets(args[0]);
+                final long scrapeIntervalMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SCRAPE_INTERVAL_MILLIS;
+                blinkyMetricsServer.startScraping(scrapeTargets, scrapeIntervalMillis);
+            }
+            blinkyMetricsServer.start();
         } catch (Throwable e) {
             e.printStackTrace();
         }
     }
 
-    private BlinkyMetricsServer() {
+    private MetricsScraper metricsScraper = null;
+
+    // Package private so the benchmarks can drive the ingest and snapshot code without starting Jetty
+    BlinkyMetricsServer() {
+    }
+
+    private void startScraping(List<ScrapeTarget> scrapeTargets, long scrapeIntervalMillis) throws IOException {
+        metricsScraper = new MetricsScraper(scrapeTargets, scrapeIntervalMillis, Math.min(MAX_SCRAPE_TIMEOUT_MILLIS, scrapeIntervalMillis),
+                SCRAPE_THREAD_COUNT, MAX_CONCURRENT_SCRAPES, new MetricsScraper.SampleListener() {
+                    @Override
+                    public void onSample(JSONObject json) throws JSONException {
+                        updateHostMetrics(json);
+                    }
+                });
+        metricsScraper.start();
+        System.out.println("Scraping " + scrapeTargets.size() + " agents every " + scrapeIntervalMillis + "ms");
     }
 
     private void start() throws Throwable {
@@ -52,6 +82,7 @@ public class BlinkyMetricsServer {
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.getWriter().println("<h1>Blinky Metrics Server: Online</h1>");
                 printHostSummary(response.getWriter());
+                printScrapeSummary(response.getWriter());
             }
         }), "/");
 
@@ -61,7 +92,7 @@ public class BlinkyMetricsServer {
             protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
                 try {
-                    JSONObject jsonObject = parseMetricsJSON(request);
+                    JSONObject jsonObject = parseMetricsJSON(request.getReader());
                     updateHostMetrics(jsonObject);
                     response.setContentType("text/html");
                     response.setStatus(HttpServletResponse.SC_OK);
@@ -113,7 +144,16 @@ public class BlinkyMetricsServer {
 
     private void startClientConnection(final HttpServletRequest request, final HttpServletResponse response) {
 
-        System.out.println("Client connected: " + request.getRemoteHost());
+        // Clients that understand the binary stream ask for it, everyone else gets a line of JSON per update
+        final String accept = request.getHeader("Accept");
+        final BinaryMetricsEncoder binaryMetricsEncoder =
+                "binary".equals(request.getParameter("format")) || (accept != null && accept.contains(BinaryMetricsEncoder.CONTENT_TYPE))
+                        ? new BinaryMetricsEncoder() : null;
+        if (binaryMetricsEncoder != null) {
+            response.setContentType(BinaryMetricsEncoder.CONTENT_TYPE);
+        }
+
+        System.out.println("Client connected: " + request.getRemoteHost() + (binaryMetricsEncoder != null ? " (binary)" : ""));
         ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
 
         final ScheduledFuture scheduledFuture = scheduledExecutorService.scheduleAtFixedRate(
@@ -121,8 +161,13 @@ public class BlinkyMetricsServer {
                 @Override
                 public void run() {
                     try {
-                        final JSONObject jsonObject = buildMetricsJSON();
-                        response.getWriter().println(jsonObject.toString());
+                        if (binaryMetricsEncoder != null) {
+                            encodeMetrics(binaryMetricsEncoder);
+                            binaryMetricsEncoder.writeTo(response.getOutputStream());
+                        } else {
+                            final JSONObject jsonObject = buildMetricsJSON();
+                            response.getWriter().println(jsonObject.toString());
+                        }
                         response.flushBuffer();
                     } catch (IOException e) {
                         // Client probably disconnected, so shut down the thread
@@ -149,7 +194,7 @@ public class BlinkyMetricsServer {
         }
     }
 
-    private JSONObject buildMetricsJSON() {
+    JSONObject buildMetricsJSON() {
         final JSONObject jsonObject = new JSONObject();
         final JSONArray hosts = new JSONArray();
         for (Map.Entry<String, Metrics> entry : metricsPerHost.entrySet()) {
@@ -163,6 +208,14 @@ public class BlinkyMetricsServer {
         return jsonObject;
     }
 
+    void encodeMetrics(BinaryMetricsEncoder binaryMetricsEncoder) {
+        binaryMetricsEncoder.beginTick();
+        for (Map.Entry<String, Metrics> entry : metricsPerHost.entrySet()) {
+            binaryMetricsEncoder.addHost(entry.getKey(), entry.getValue().cpuUsage);
+        }
+        binaryMetricsEncoder.endTick();
+    }
+
     private void printHostSummary(PrintWriter writer) {
 
         writer.println("<p>Registered Hosts: " + metricsPerHost.size() + "</p>");
@@ -178,10 +231,45 @@ public class BlinkyMetricsServer {
         writer.println("</ol>");
     }
 
+    private void printScrapeSummary(PrintWriter writer) {
+        if (metricsScraper == null) {
+            return;
+        }
+
+        final List<ScrapeTarget> targets = metricsScraper.getTargets();
+        long scrapes = 0;
+        long failures = 0;
+        int failingTargets = 0;
+        for (ScrapeTarget target : targets) {
+            scrapes += target.getScrapes();
+            failures += target.getFailures();
+            failingTargets += target.getConsecutiveFailures() > 0 ? 1 : 0;
+        }
+        writer.println("<p>Scrape Targets: " + targets.size() + " every " + metricsScraper.getIntervalMillis() + "ms on "
+                + metricsScraper.getThreadCount() + " threads (" + failingTargets + " failing, " + failures + " of "
+                + scrapes + " scrapes failed)</p>");
+        writer.println("<ol>");
+
+        for (ScrapeTarget target : targets) {
+            writer.println("<li>");
+            writer.println("<b>" + target.getAddress() + "</b>");
+            writer.println(String.format(" (Latency: last %.1fms, average %.1fms, max %.1fms; %d scrapes, %d failed",
+                    target.getLastLatencyNanos() / 1000000.0, target.getAverageLatencyNanos() / 1000000.0,
+                    target.getMaxLatencyNanos() / 1000000.0, target.getScrapes(), target.getFailures()));
+            if (target.getConsecutiveFailures() > 0) {
+                writer.println("; failing since " + (target.getLastSuccessMillis() == 0 ? "start up" : new Date(target.getLastSuccessMillis()))
+                        + ": " + target.getLastError());
+            }
+            writer.println(")</li>");
+        }
+
+        writer.println("</ol>");
+    }
+
     // Purposefully synchronized collection
     private Map<String, Metrics> metricsPerHost = new ConcurrentHashMap<>();
 
-    private void updateHostMetrics(JSONObject jsonObject) throws JSONException {
+    void updateHostMetrics(JSONObject jsonObject) throws JSONException {
         final String hostName = jsonObject.getString("hostName");
 
         Metrics metrics = metricsPerHost.get(hostName);
@@ -195,10 +283,9 @@ public class BlinkyMetricsServer {
 
     }
 
-    private JSONObject parseMetricsJSON(HttpServletRequest request) throws IOException {
+    JSONObject parseMetricsJSON(BufferedReader reader) throws IOException {
         final StringBuilder sb = new StringBuilder();
         String line;
-        BufferedReader reader = request.getReader();
         while ((line = reader.readLine()) != null) {
             sb.append(line);
         }
@@ -0,0 +1,394 @@
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scrapes the latest sample from agents that can't push to us (e.g. behind a firewall that only allows inbound
+ * connections), handing each one to a {@link SampleListener} just like a pushed sample.
+ * <p>
+ * The targets are shared out between a few threads, each of which runs its scrapes with non-blocking sockets on its
+ * own selector, so thousands of targets don't need thousands of threads.  Each thread has at most its share of
+ * maxConcurrentScrapes in flight at once; due targets wait for a free one.  Every target is scraped once per interval,
+ * with the first scrape spread at random across the first interval and each one after that landing up to
+ * {@link #JITTER} of the interval early or late, so that the targets don't all fire together.
+ * <p>
+ * Looking up a host blocks, so that's never done on the scrape threads: a few resolver threads look every target up
+ * when scraping starts, and again in the background once its address is {@link #RESOLVE_INTERVAL_MILLIS} old, so an
+ * agent that moves is followed.  A target is scraped at its last known address meanwhile, and until its host has been
+ * looked up at least once its scrapes fail straight away.
+ */
+public class MetricsScraper implements AutoCloseable {
+
+    /**
+     * Receives every sample scraped, on one of the scraper's threads.
+     */
+    public interface SampleListener {
+        void onSample(JSONObject json) throws Exception;
+    }
+
+    private static final double JITTER = 0.1;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;        // An agent's sample is a couple of hundred bytes
+    private static final long MAX_SELECT_MILLIS = 50;               // So time outs are noticed even when nothing is due
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+    private static final int RESOLVER_THREAD_COUNT = 4;             // A slow DNS server only holds up this many lookups
+    private static final long RESOLVE_INTERVAL_MILLIS = 60000;      // How long a looked up address is trusted for
+
+    private final List<ScrapeTarget> targets;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final SampleListener sampleListener;
+    private final ScrapeThread[] scrapeThreads;
+    private final ExecutorService resolver;
+
+    private volatile boolean running = false;
+
+    public MetricsScraper(List<ScrapeTarget> targets, long intervalMillis, long timeoutMillis, int threadCount,
+                          int maxConcurrentScrapes, SampleListener sampleListener) throws IOException {
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.timeoutNanos = timeoutMillis * 1000000L;
+        this.sampleListener = sampleListener;
+
+        threadCount = Math.max(1, Math.min(threadCount, targets.size()));
+        this.scrapeThreads = new ScrapeThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            scrapeThreads[i] = new ScrapeThread(i, Math.max(1, maxConcurrentScrapes / threadCount));
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            scrapeThreads[i % threadCount].schedule.add(targets.get(i));
+        }
+
+        this.resolver = Executors.newFixedThreadPool(RESOLVER_THREAD_COUNT, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "MetricsScraper-resolver-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reads a target list, one host[:port][/path] per line, ignoring blank lines and # comments.
+     */
+    public static List<ScrapeTarget> readTargets(String fileName) throws IOException {
+        final List<ScrapeTarget> targets = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    targets.add(new ScrapeTarget(line));
+                }
+            }
+        }
+        return targets;
+    }
+
+    public void start() {
+        running = true;
+        for (ScrapeTarget target : targets) {
+            resolve(target);
+        }
+        for (ScrapeThread scrapeThread : scrapeThreads) {
+            scrapeThread.start();
+        }
+    }
+
+    public List<ScrapeTarget> getTargets() {
+        return targets;
+    }
+
+    public long getIntervalMillis() {
+        return intervalNanos / 1000000L;
+    }
+
+    public int getThreadCount() {
+        return scrapeThreads.length;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        resolver.shutdownNow();
+        for (ScrapeThread scrapeThread : scrapeThreads) {
+            scrapeThread.selector.wakeup();
+        }
+        for (ScrapeThread scrapeThread : scrapeThreads) {
+            try {
+                scrapeThread.thread.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Looks the target's host up on a resolver thread, unless a lookup is already on its way.
+     */
+    private void resolve(final ScrapeTarget target) {
+        if (target.resolving) {
+            return;
+        }
+        target.resolving = true;
+        try {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InetSocketAddress socketAddress = new InetSocketAddress(target.getHost(), target.getPort());
+                    if (socketAddress.isUnresolved()) {
+                        // Keep any address we already had, the agent is more likely still there than not
+                        target.resolveError = "Unknown host " + target.getHost();
+                    } else {
+                        target.socketAddress = socketAddress;
+                        target.resolvedNanos = System.nanoTime();
+                        target.resolveError = null;
+                    }
+                    target.resolving = false;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            target.resolving = false;       // We're closing
+        }
+    }
+
+    private class ScrapeThread implements Runnable {
+
+        private final Thread thread;
+        private final Selector selector;
+        private final int maxInFlight;
+        private final Random random = new Random();
+
+        private final PriorityQueue<ScrapeTarget> schedule = new PriorityQueue<>(16, new Comparator<ScrapeTarget>() {
+            @Override
+            public int compare(ScrapeTarget target1, ScrapeTarget target2) {
+                return Long.compare(target1.nextScrapeNanos - target2.nextScrapeNanos, 0);
+            }
+        });
+        private final ScrapeTarget[] inFlight;
+        private int inFlightCount = 0;
+
+        private ScrapeThread(int index, int maxInFlight) throws IOException {
+            this.selector = Selector.open();
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new ScrapeTarget[maxInFlight];
+            this.thread = new Thread(this, "MetricsScraper-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            // Spread the first scrapes across the first interval (the queue has to be rebuilt once the times change)
+            final long startNanos = System.nanoTime();
+            final List<ScrapeTarget> scheduled = new ArrayList<>(schedule);
+            schedule.clear();
+            for (ScrapeTarget target : scheduled) {
+                target.scheduledNanos = startNanos + (long) (random.nextDouble() * intervalNanos);
+                target.nextScrapeNanos = target.scheduledNanos;
+                schedule.add(target);
+            }
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long currentNanos = System.nanoTime();
+
+                // Start whatever is due, as far as the limit on scrapes in flight allows
+                while (inFlightCount < maxInFlight && !schedule.isEmpty() && schedule.peek().nextScrapeNanos - currentNanos <= 0) {
+                    startScrape(schedule.poll(), currentNanos);
+                }
+
+                for (int i = inFlightCount - 1; i >= 0; i--) {
+                    final ScrapeTarget target = inFlight[i];
+                    if (currentNanos - target.scrapeStartNanos > timeoutNanos) {
+                        failScrape(target, "Timed out after " + (timeoutNanos / 1000000L) + "ms", currentNanos);
+                    }
+                }
+
+                // Sleep until something is ready, or the next scrape is due (rounded up, as waking a fraction of a
+                // millisecond early would only spin round to sleep again)
+                long selectMillis = MAX_SELECT_MILLIS;
+                if (inFlightCount < maxInFlight && !schedule.isEmpty()) {
+                    final long dueNanos = schedule.peek().nextScrapeNanos - currentNanos;
+                    selectMillis = Math.max(1, Math.min(selectMillis, (dueNanos + 999999L) / 1000000L));
+                }
+                try {
+                    selector.select(selectMillis);
+                } catch (IOException e) {
+                    System.err.println("Scraping stopped due to: " + e.getMessage());
+                    break;
+                }
+
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    handle(key, (ScrapeTarget) key.attachment());
+                }
+            }
+
+            while (inFlightCount > 0) {
+                finishScrape(inFlight[inFlightCount - 1], System.nanoTime());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Purposefully empty, we're stopping anyway
+            }
+        }
+
+        private void startScrape(ScrapeTarget target, long currentNanos) {
+            target.scrapeStartNanos = currentNanos;
+            target.inFlightIndex = inFlightCount;
+            inFlight[inFlightCount++] = target;
+
+            // The lookups happen on the resolver threads, here we only ask for one when the address is missing or old
+            final InetSocketAddress socketAddress = target.socketAddress;
+            if (socketAddress == null || currentNanos - target.resolvedNanos > RESOLVE_INTERVAL_MILLIS * 1000000L) {
+                resolve(target);
+            }
+            if (socketAddress == null) {
+                final String resolveError = target.resolveError;
+                failScrape(target, resolveError != null ? resolveError : "Still looking up " + target.getHost(), currentNanos);
+                return;
+            }
+
+            try {
+                target.request.rewind();
+                target.response.clear();
+                target.channel = SocketChannel.open();
+                target.channel.configureBlocking(false);
+                target.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (target.channel.connect(socketAddress)) {
+                    target.channel.register(selector, SelectionKey.OP_WRITE, target);
+                } else {
+                    target.channel.register(selector, SelectionKey.OP_CONNECT, target);
+                }
+            } catch (IOException e) {
+                failScrape(target, e.toString(), currentNanos);
+            }
+        }
+
+        private void handle(SelectionKey key, ScrapeTarget target) {
+            try {
+                if (key.isConnectable()) {
+                    if (target.channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (key.isWritable()) {
+                    target.channel.write(target.request);
+                    if (!target.request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    if (!target.response.hasRemaining()) {
+                        if (target.response.capacity() >= MAX_RESPONSE_BYTES) {
+                            failScrape(target, "Response larger than " + MAX_RESPONSE_BYTES + " bytes", System.nanoTime());
+                            return;
+                        }
+                        final ByteBuffer biggerResponse = ByteBuffer.allocate(target.response.capacity() * 2);
+                        target.response.flip();
+                        biggerResponse.put(target.response);
+                        target.response = biggerResponse;
+                    }
+                    if (target.channel.read(target.response) < 0) {
+                        completeScrape(target);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failScrape(target, e.toString(), System.nanoTime());
+            }
+        }
+
+        /**
+         * The agent has sent its sample and closed the connection, so hand the sample on.
+         */
+        private void completeScrape(ScrapeTarget target) {
+            final long currentNanos = System.nanoTime();
+            final byte[] response = target.response.array();
+            final int length = target.response.position();
+
+            int bodyStart = -1;
+            for (int i = 0; i + 3 < length; i++) {
+                if (response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n') {
+                    bodyStart = i + 4;
+                    break;
+                }
+            }
+            if (bodyStart < 0) {
+                failScrape(target, "Incomplete response", currentNanos);
+                return;
+            }
+
+            // The status line is "HTTP/1.x 200 OK"
+            final String statusLine = new String(response, 0, Math.min(length, 16), StandardCharsets.ISO_8859_1);
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || !statusLine.startsWith("200", 9)) {
+                final int statusLineEnd = statusLine.indexOf('\r');
+                failScrape(target, statusLineEnd < 0 ? statusLine : statusLine.substring(0, statusLineEnd), currentNanos);
+                return;
+            }
+
+            try {
+                sampleListener.onSample(new JSONObject(new String(response, bodyStart, length - bodyStart, StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                failScrape(target, "Bad sample: " + e.getMessage(), currentNanos);
+                return;
+            }
+            target.recordSuccess(currentNanos - target.scrapeStartNanos);
+            finishScrape(target, currentNanos);
+        }
+
+        private void failScrape(ScrapeTarget target, String error, long currentNanos) {
+            target.recordFailure(error);
+            finishScrape(target, currentNanos);
+        }
+
+        /**
+         * Closes the scrape's connection and schedules the target's next scrape.
+         */
+        private void finishScrape(ScrapeTarget target, long currentNanos) {
+            if (target.channel != null) {
+                try {
+                    target.channel.close();
+                } catch (IOException e) {
+                    // Purposefully empty, there's nothing more we need from it
+                }
+                target.channel = null;
+            }
+
+            // Swap the last scrape in flight into this one's place
+            final ScrapeTarget last = inFlight[--inFlightCount];
+            inFlight[target.inFlightIndex] = last;
+            last.inFlightIndex = target.inFlightIndex;
+            inFlight[inFlightCount] = null;
+            target.inFlightIndex = -1;
+
+            // A scrape that overran just misses its turns rather than having them all fire at once
+            target.scheduledNanos += intervalNanos;
+            if (target.scheduledNanos - currentNanos < 0) {
+                target.scheduledNanos += ((currentNanos - target.scheduledNanos) / intervalNanos + 1) * intervalNanos;
+            }
+            target.nextScrapeNanos = target.scheduledNanos + (long) ((random.nextDouble() * 2.0 - 1.0) * JITTER * intervalNanos);
+            schedule.add(target);
+        }
+    }
+}
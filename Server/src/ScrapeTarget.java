@@ -0,0 +1,150 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An agent that {@link MetricsScraper} scrapes, given as host[:port][/path], along with how its scrapes have gone.  An
+ * IPv6 address has to be in brackets, e.g. [::1]:7273, as otherwise its colons can't be told apart from the port's.
+ * <p>
+ * The scrape state belongs to the scraper thread that owns the target, apart from its address, which is looked up on
+ * the scraper's resolver threads.  The statistics are only ever written by the scraper thread, but can be read from
+ * anywhere.
+ */
+public class ScrapeTarget {
+
+    private static final int DEFAULT_PORT = 7273;               // Where a listening BlinkyMetricsAgent serves by default
+    private static final String DEFAULT_PATH = "/metrics";
+    private static final int INITIAL_RESPONSE_BUFFER_SIZE = 512;
+
+    private final String address;
+    private final String host;
+    private final int port;
+    final ByteBuffer request;
+
+    // The host's address, looked up on a resolver thread
+    volatile InetSocketAddress socketAddress;           // Null until the host has been looked up successfully
+    volatile long resolvedNanos;
+    volatile String resolveError;                       // Why the last lookup failed, or null if it didn't
+    volatile boolean resolving = false;                 // Set by the scraper thread when it asks for a lookup
+
+    // Scrape state, owned by the scraper thread
+    long scheduledNanos;                    // When the current scrape was due before jitter, the schedule's baseline
+    long nextScrapeNanos;
+    long scrapeStartNanos;
+    SocketChannel channel;
+    ByteBuffer response = ByteBuffer.allocate(INITIAL_RESPONSE_BUFFER_SIZE);
+    int inFlightIndex = -1;
+
+    // Statistics
+    private volatile long scrapes = 0;
+    private volatile long failures = 0;
+    private volatile long consecutiveFailures = 0;
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+    private volatile long totalLatencyNanos = 0;
+    private volatile long lastSuccessMillis = 0;
+    private volatile String lastError = null;
+
+    public ScrapeTarget(String address) {
+        this.address = address;
+
+        final int pathStart = address.indexOf('/');
+        final String hostAndPort = pathStart < 0 ? address : address.substring(0, pathStart);
+        final String path = pathStart < 0 ? DEFAULT_PATH : address.substring(pathStart);
+        final String hostHeader;
+        final int portStart;
+        if (hostAndPort.startsWith("[")) {
+            final int hostEnd = hostAndPort.indexOf(']');
+            if (hostEnd < 0 || (hostEnd + 1 < hostAndPort.length() && hostAndPort.charAt(hostEnd + 1) != ':')) {
+                throw new IllegalArgumentException("Invalid scrape target \"" + address + "\", expected [address][:port][/path]");
+            }
+            hostHeader = hostAndPort.substring(0, hostEnd + 1);
+            this.host = hostAndPort.substring(1, hostEnd);
+            portStart = hostEnd + 1 < hostAndPort.length() ? hostEnd + 1 : -1;
+        } else {
+            portStart = hostAndPort.indexOf(':');
+            if (portStart >= 0 && hostAndPort.indexOf(':', portStart + 1) >= 0) {
+                throw new IllegalArgumentException("Invalid scrape target \"" + address + "\", put an IPv6 address in brackets, e.g. [::1]:" + DEFAULT_PORT);
+            }
+            this.host = portStart < 0 ? hostAndPort : hostAndPort.substring(0, portStart);
+            hostHeader = host;
+        }
+        try {
+            this.port = portStart < 0 ? DEFAULT_PORT : Integer.parseInt(hostAndPort.substring(portStart + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in scrape target \"" + address + "\"");
+        }
+
+        // HTTP/1.0 so the agent closes the connection once it has sent the sample, and we just read until it does
+        this.request = ByteBuffer.wrap(("GET " + path + " HTTP/1.0\r\nHost: " + hostHeader + "\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getScrapes() {
+        return scrapes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return the average latency of the successful scrapes
+     */
+    public long getAverageLatencyNanos() {
+        final long successes = scrapes - failures;
+        return successes <= 0 ? 0 : totalLatencyNanos / successes;
+    }
+
+    public long getLastSuccessMillis() {
+        return lastSuccessMillis;
+    }
+
+    /**
+     * @return why the last failed scrape failed, or null if none have
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    void recordSuccess(long latencyNanos) {
+        scrapes++;
+        consecutiveFailures = 0;
+        lastLatencyNanos = latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        totalLatencyNanos += latencyNanos;
+        lastSuccessMillis = System.currentTimeMillis();
+    }
+
+    void recordFailure(String error) {
+        scrapes++;
+        failures++;
+        consecutiveFailures++;
+        lastError = error;
+    }
+}